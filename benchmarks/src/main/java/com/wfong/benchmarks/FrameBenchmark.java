@@ -0,0 +1,69 @@
+package com.wfong.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.wfong.nodes.MonitorNode;
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This class measures the per-frame work done on every hop: parsing a record of an input file,
+ * reading a frame's payload and the Monitor's health check.
+ * @author William Fong
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBenchmark {
+	//Payload size: a short record and the largest one the input generator writes
+	@Param({ "16", "254" })
+	private int dataSize;
+
+	private String record;
+	private STPLPFrame frame;
+
+	@Setup
+	public void setUp() {
+		StringBuilder line = new StringBuilder("2," + this.dataSize + ",");
+		for (int i = 0; i < this.dataSize; i++) {
+			line.append((char) ('A' + i % 26));
+		}
+		this.record = line.toString();
+		this.frame = new STPLPFrame(this.record, (byte) 1);
+	}
+
+	@Benchmark
+	public STPLPFrame parse() {
+		return new STPLPFrame(this.record, (byte) 1);
+	}
+
+	@Benchmark
+	public byte[] getBinaryData() {
+		return this.frame.getBinaryData();
+	}
+
+	@Benchmark
+	public String dataToString() {
+		return this.frame.dataToString();
+	}
+
+	@Benchmark
+	public boolean isFrameHealthy() {
+		return MonitorNode.isFrameHealthy(this.frame);
+	}
+}
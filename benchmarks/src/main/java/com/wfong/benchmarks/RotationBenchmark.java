@@ -0,0 +1,89 @@
+package com.wfong.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.wfong.fault.BernoulliFaultModel;
+import com.wfong.fault.Fault;
+import com.wfong.io.CountingFrameSink;
+import com.wfong.io.SyntheticFrameSource;
+import com.wfong.nodes.MonitorNode;
+import com.wfong.nodes.Node;
+import com.wfong.nodes.RelayNode;
+import com.wfong.simulation.Simulator;
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This class measures one full rotation of the token around a small ring, every Node listening,
+ * seizing the token and transmitting its frames under the THT.<br>
+ * The ring runs in the {@link Simulator} on the benchmark thread. Its links only delay the virtual
+ * clock, so only the Nodes' processing is measured, not thread hand offs or the kernel. The Nodes
+ * never run out of frames and no faults are injected.
+ * @author William Fong
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RotationBenchmark {
+	@Param({ "4", "16" })
+	private int nodes;
+
+	@Param({ "150", "1500" })
+	private int tht;
+
+	private Simulator simulator;
+	private MonitorNode monitor;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.simulator = new Simulator();
+		this.monitor = new MonitorNode(0, 1000, this.simulator.newTransport());
+		List<RelayNode> ring = new ArrayList<RelayNode>();
+		for (int nodeID = 1; nodeID <= this.nodes; nodeID++) {
+			RelayNode node = new RelayNode(nodeID, this.tht, 1000, this.simulator.newTransport(),
+					new SyntheticFrameSource(new Random(nodeID), Integer.MAX_VALUE, this.nodes, 1, STPLPFrame.MAX_DATA_SIZE),
+					new CountingFrameSink());
+			node.setFaultModel(new BernoulliFaultModel(new double[Fault.values().length], nodeID));
+			ring.add(node);
+		}
+		this.monitor.placeNetwork(ring);
+		List<Node> all = new ArrayList<Node>();
+		all.add(this.monitor);
+		all.addAll(ring);
+		for (int i = 0; i < all.size(); i++) {
+			all.get(i).connectTo(all.get((i + 1) % all.size()));
+		}
+		this.simulator.addNodes(all);
+		this.simulator.start();
+	}
+
+	@Benchmark
+	public long rotation() {
+		long rotations = this.monitor.getRotationCount();
+		while (this.monitor.getRotationCount() == rotations) {
+			if (!this.simulator.step()) {
+				throw new IllegalStateException("The ring stopped after " + rotations + " rotations");
+			}
+		}
+		return this.simulator.getEventCount();
+	}
+}
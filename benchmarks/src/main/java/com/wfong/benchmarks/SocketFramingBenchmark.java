@@ -0,0 +1,86 @@
+package com.wfong.benchmarks;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.wfong.nodes.MonitorNode;
+import com.wfong.nodes.Node;
+import com.wfong.token.STPLPFrame;
+import com.wfong.transport.InProcessTransport;
+import com.wfong.transport.TcpTransport;
+import com.wfong.transport.Transport;
+import com.wfong.transport.TransportType;
+
+/**
+ * This class measures one hop of a frame between two connected Nodes: the sender's
+ * {@link Node#writeToSocket(STPLPFrame)} and the receiver's {@link Node#readSocket()}, which
+ * decodes the frame from the byte stream.
+ * @author William Fong
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SocketFramingBenchmark {
+	@Param({ "tcp", "inproc" })
+	private String transport;
+
+	@Param({ "16", "254" })
+	private int dataSize;
+
+	private Node sender;
+	private Node receiver;
+	private STPLPFrame frame;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.sender = new MonitorNode(1, 10000, newTransport());
+		this.receiver = new MonitorNode(2, 10000, newTransport());
+		this.sender.connectTo(this.receiver);
+		this.receiver.acceptClient();
+		StringBuilder line = new StringBuilder("2," + this.dataSize + ",");
+		for (int i = 0; i < this.dataSize; i++) {
+			line.append((char) ('A' + i % 26));
+		}
+		this.frame = new STPLPFrame(line.toString(), (byte) 1);
+	}
+
+	private Transport newTransport() {
+		if (TransportType.parse(this.transport) == TransportType.IN_PROCESS) {
+			return new InProcessTransport();
+		}
+		return new TcpTransport();
+	}
+
+	@Benchmark
+	public int writeAndRead() throws SocketTimeoutException {
+		this.sender.writeToSocket(this.frame);
+		STPLPFrame received = this.receiver.readSocket();
+		int length = received.getFrameLength();
+		this.receiver.releaseFrame(received);
+		return length;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.sender.closeNode();
+		this.receiver.closeNode();
+	}
+}
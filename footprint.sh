@@ -0,0 +1,24 @@
+#!/bin/bash
+
+#Compares the footprint and token rotation of the thread modes as the ring grows.
+#Usage: ./footprint.sh [node counts (default "30 100 254")] [frames per Node (default 50)]
+#Rings are capped at 254 Nodes by the one byte addresses of the frame format.
+#Virtual threads need Java 21 or later, older JVMs run them on platform threads and say so on stderr.
+#Every ring shares one seed and synthetic input and injects no faults, so the modes carry the same traffic.
+NODES=${1:-"30 100 254"}
+FRAMES=${2:-50}
+SEED=1
+
+ant -q
+printf "%-6s %-10s %10s %12s %16s %18s %11s\n" nodes threads elapsed_ms peak_heap_kb platform_threads mean_rotation_us lost_tokens
+for nodes in $NODES; do
+	for threads in platform virtual eventloop; do
+		java -cp wfong_p2.jar com.wfong.tokenRing.Test $nodes -threads=$threads -transport=inproc \
+				-frames=$FRAMES -seed=$SEED -timeout=fixed -garble=0 -orphan=0 -tokenloss=0 2>/dev/null | grep "^RING:" |
+			awk -v nodes=$nodes -v threads=$threads '{
+				for (i = 2; i <= NF; i++) { split($i, field, "="); value[field[1]] = field[2] }
+				printf "%-6s %-10s %10s %12s %16s %18s %11s\n", nodes, threads, value["elapsed_ms"],
+						value["peak_heap_kb"], value["peak_platform_threads"], value["mean_rotation_us"], value["lost_tokens"]
+			}'
+	done
+done
@@ -0,0 +1,174 @@
+package com.wfong.engine;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.wfong.nodes.Node;
+import com.wfong.nodes.NodeStateMachine;
+import com.wfong.token.STPLPFrame;
+import com.wfong.transport.SelectorTransport;
+
+/**
+ * This class drives a group of Nodes from a single thread. The input and output channels of all
+ * of its Nodes are multiplexed on one {@link Selector}, and their time outs on one {@link TimerWheel}.
+ * @author William Fong
+ *
+ */
+public class EventLoop implements Runnable {
+	//Resolution of the timer wheel
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * The state the loop keeps for each Node.
+	 */
+	private class NodeContext extends TimerWheel.Timeout {
+		private final Node node;
+		private final NodeStateMachine stateMachine;
+		private final SelectorTransport transport;
+		private SelectionKey inputKey;
+		private boolean terminated;
+
+		private NodeContext(Node node) {
+			this.node = node;
+			this.stateMachine = (NodeStateMachine) node;
+			this.transport = (SelectorTransport) node.getTransport();
+		}
+
+		@Override
+		protected void expire(long now) {
+			if (this.terminated) {
+				return;
+			}
+			if (this.stateMachine.onTimeOut()) {
+				terminate(this);
+				return;
+			}
+			rearm(this, now);
+		}
+	}
+
+	private final Selector selector;
+	private final List<NodeContext> nodes;
+	private TimerWheel timerWheel;
+	private int activeNodes;
+
+	/**
+	 * Creates an event loop with its own selector.
+	 * @throws IOException If the selector could not be opened.
+	 */
+	public EventLoop() throws IOException {
+		this.selector = Selector.open();
+		this.nodes = new ArrayList<NodeContext>();
+	}
+
+	/**
+	 * Adds a connected Node to the loop. Must be called before the loop is started.
+	 * @param node A Node using a {@link SelectorTransport} and implementing {@link NodeStateMachine}.
+	 * @throws IOException If the Node's channels could not be registered.
+	 */
+	public void addNode(Node node) throws IOException {
+		NodeContext context = new NodeContext(node);
+		context.inputKey = context.transport.register(this.selector, context);
+		this.nodes.add(context);
+		this.activeNodes++;
+	}
+
+	@Override
+	public void run() {
+		long now = System.nanoTime();
+		this.timerWheel = new TimerWheel(TICK_NANOS, 4096, now);
+		for (NodeContext context : this.nodes) {
+			context.stateMachine.start();
+			rearm(context, now);
+		}
+		try {
+			while (this.activeNodes > 0 || hasPendingWrites()) {
+				this.selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(TICK_NANOS)));
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					NodeContext context = (NodeContext) key.attachment();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isWritable()) {
+						context.transport.flushPending();
+					}
+					if (key == context.inputKey && key.isReadable()) {
+						handleInput(context);
+					}
+				}
+				this.timerWheel.advance(System.nanoTime());
+			}
+			this.selector.close();
+		} catch (IOException e) {
+			System.err.println("Event loop failed: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads every available byte of a Node's input and hands each complete Frame to the Node.
+	 */
+	private void handleInput(NodeContext context) {
+		int bytesRead;
+		STPLPFrame frame;
+		do {
+			try {
+				bytesRead = context.node.fillDecoder();
+			} catch (IOException e) {
+				bytesRead = -1;
+			}
+			while ((frame = context.node.pollFrame()) != null) {
+				if (context.stateMachine.onFrame(frame)) {
+					terminate(context);
+					return;
+				}
+			}
+		} while (bytesRead > 0);
+		if (bytesRead < 0) {
+			//Upstream closed the link, nothing more will arrive
+			context.inputKey.cancel();
+			return;
+		}
+		rearm(context, System.nanoTime());
+	}
+
+	/**
+	 * Pushes back a Node's time out, like SO_TIMEOUT being reset by a read.<br>
+	 * The period is read from the Node every time, since the Monitor adjusts it at runtime.
+	 */
+	private void rearm(NodeContext context, long now) {
+		long timeOutNanos = TimeUnit.MILLISECONDS.toNanos(context.node.getTimeOutPeriod());
+		if (timeOutNanos > 0) {
+			this.timerWheel.schedule(context, now + timeOutNanos);
+		}
+	}
+
+	/**
+	 * Stops delivering events to a Node that has terminated.
+	 */
+	private void terminate(NodeContext context) {
+		context.terminated = true;
+		context.inputKey.cancel();
+		this.activeNodes--;
+	}
+
+	/**
+	 * Returns true while any Node still has bytes queued for its output channel.
+	 */
+	private boolean hasPendingWrites() {
+		for (NodeContext context : this.nodes) {
+			if (context.transport.hasPendingWrites()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
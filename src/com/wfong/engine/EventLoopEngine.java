@@ -0,0 +1,64 @@
+package com.wfong.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.wfong.nodes.Node;
+
+/**
+ * This class runs a whole ring on a small fixed number of event loops instead of one thread per
+ * Node. Nodes are spread over the loops round robin.
+ * @author William Fong
+ *
+ */
+public class EventLoopEngine {
+	private List<EventLoop> loops;
+	private List<Thread> threads;
+
+	/**
+	 * Creates an engine with the given number of event loops.
+	 * @param numberOfLoops The number of selector threads (at least 1).
+	 * @throws IOException If a selector could not be opened.
+	 */
+	public EventLoopEngine(int numberOfLoops) throws IOException {
+		this.loops = new ArrayList<EventLoop>();
+		this.threads = new ArrayList<Thread>();
+		for (int i = 0; i < Math.max(1, numberOfLoops); i++) {
+			this.loops.add(new EventLoop());
+		}
+	}
+
+	/**
+	 * Accepts the upstream connection of every Node and assigns the Nodes to the event loops.<br>
+	 * Every Node must already be connected to its downstream neighbor.
+	 * @param nodes The Nodes of the ring, they must use a SelectorTransport and implement NodeStateMachine.
+	 * @throws IOException If a Node could not be registered.
+	 */
+	public void addNodes(List<? extends Node> nodes) throws IOException {
+		for (int i = 0; i < nodes.size(); i++) {
+			Node node = nodes.get(i);
+			node.acceptClient();
+			this.loops.get(i % this.loops.size()).addNode(node);
+		}
+	}
+
+	/**
+	 * Starts every event loop.
+	 */
+	public void start() {
+		for (int i = 0; i < this.loops.size(); i++) {
+			Thread thread = new Thread(this.loops.get(i), "Event Loop " + i);
+			this.threads.add(thread);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Returns the threads running the event loops.
+	 * @return The event loop threads.
+	 */
+	public List<Thread> getThreads() {
+		return this.threads;
+	}
+}
@@ -0,0 +1,138 @@
+package com.wfong.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a hashed timer wheel. Time outs are placed in the slot of the tick they expire in,
+ * so scheduling and expiring are O(1) no matter how many Nodes share the wheel.<br>
+ * A time out whose deadline is pushed back is left in its old slot and re-slotted lazily when
+ * that slot is reached, which keeps re-arming on every Frame free. A time out whose deadline is
+ * brought forward past its slot is moved to the earlier slot at once, so it never fires late.
+ * @author William Fong
+ *
+ */
+public class TimerWheel {
+
+	/**
+	 * An entry of the wheel.
+	 */
+	public static abstract class Timeout {
+		private long deadline;
+		private boolean scheduled;
+		//Tick of the slot the time out sits in
+		private long tick;
+
+		/**
+		 * Called by the wheel once the deadline has passed.
+		 * @param now The current time in nanoseconds.
+		 */
+		protected abstract void expire(long now);
+	}
+
+	private final List<List<Timeout>> slots;
+	private final List<Timeout> expired;
+	private final long tickNanos;
+	private final int mask;
+	private long currentTick;
+
+	/**
+	 * Creates a timer wheel.
+	 * @param tickNanos The resolution of the wheel in nanoseconds.
+	 * @param numberOfSlots The number of slots, rounded up to a power of two.
+	 * @param now The current time in nanoseconds.
+	 */
+	public TimerWheel(long tickNanos, int numberOfSlots, long now) {
+		int size = Integer.highestOneBit(Math.max(numberOfSlots, 2) - 1) << 1;
+		this.slots = new ArrayList<List<Timeout>>(size);
+		for (int i = 0; i < size; i++) {
+			this.slots.add(new ArrayList<Timeout>());
+		}
+		this.expired = new ArrayList<Timeout>();
+		this.tickNanos = tickNanos;
+		this.mask = size - 1;
+		this.currentTick = now / tickNanos;
+	}
+
+	/**
+	 * Returns the resolution of the wheel.
+	 * @return The tick length in nanoseconds.
+	 */
+	public long getTickNanos() {
+		return this.tickNanos;
+	}
+
+	/**
+	 * Schedules a time out, or moves the deadline of one already scheduled.
+	 * @param timeout The time out.
+	 * @param deadline The new deadline in nanoseconds.
+	 */
+	public void schedule(Timeout timeout, long deadline) {
+		timeout.deadline = deadline;
+		long tick = tickOf(deadline);
+		if (!timeout.scheduled) {
+			timeout.scheduled = true;
+			timeout.tick = tick;
+			slotOf(tick).add(timeout);
+		} else if (tick < timeout.tick) {
+			//The old slot may only be reached after the new deadline
+			List<Timeout> slot = slotOf(timeout.tick);
+			int index = slot.indexOf(timeout);
+			slot.set(index, slot.get(slot.size() - 1));
+			slot.remove(slot.size() - 1);
+			timeout.tick = tick;
+			slotOf(tick).add(timeout);
+		}
+	}
+
+	/**
+	 * Expires every time out whose deadline is not after now.
+	 * @param now The current time in nanoseconds.
+	 */
+	public void advance(long now) {
+		long targetTick = now / this.tickNanos;
+		long steps = Math.min(targetTick - this.currentTick + 1, this.slots.size());
+		for (long i = 0; i < steps; i++) {
+			List<Timeout> slot = this.slots.get((int) ((this.currentTick + i) & this.mask));
+			int index = 0;
+			while (index < slot.size()) {
+				Timeout timeout = slot.get(index);
+				List<Timeout> destination = this.expired;
+				if (timeout.deadline > now) {
+					timeout.tick = tickOf(timeout.deadline);
+					destination = slotOf(timeout.tick);
+				}
+				if (destination == slot) {
+					index++;
+					continue;
+				}
+				//Swap remove
+				slot.set(index, slot.get(slot.size() - 1));
+				slot.remove(slot.size() - 1);
+				destination.add(timeout);
+			}
+		}
+		this.currentTick = Math.max(this.currentTick, targetTick);
+		for (Timeout timeout : this.expired) {
+			timeout.scheduled = false;
+		}
+		for (int i = 0; i < this.expired.size(); i++) {
+			this.expired.get(i).expire(now);
+		}
+		this.expired.clear();
+	}
+
+	/**
+	 * Returns the tick a deadline falls into, never one already passed.
+	 */
+	private long tickOf(long deadline) {
+		return Math.max(deadline / this.tickNanos, this.currentTick);
+	}
+
+	/**
+	 * Returns the slot of a tick.
+	 */
+	private List<Timeout> slotOf(long tick) {
+		return this.slots.get((int) (tick & this.mask));
+	}
+}
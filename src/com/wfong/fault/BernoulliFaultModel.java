@@ -0,0 +1,60 @@
+package com.wfong.fault;
+
+import java.util.SplittableRandom;
+
+/**
+ * This class injects every fault independently of the others, each at a fixed rate.
+ * @author William Fong
+ *
+ */
+public class BernoulliFaultModel implements FaultModel {
+	//Probability of each fault, indexed by ordinal
+	private final double[] probabilities;
+	protected final SplittableRandom random;
+
+	/**
+	 * Creates a model with the default rates and an unseeded generator.
+	 */
+	public BernoulliFaultModel() {
+		this(Fault.defaultRates(), new SplittableRandom());
+	}
+
+	/**
+	 * Creates a model whose decisions are drawn from a seeded generator.
+	 * @param rates The rate of each fault in percent, indexed by ordinal.
+	 * @param seed The seed of the generator.
+	 */
+	public BernoulliFaultModel(double[] rates, long seed) {
+		this(rates, new SplittableRandom(seed));
+	}
+
+	private BernoulliFaultModel(double[] rates, SplittableRandom random) {
+		this.probabilities = new double[rates.length];
+		for (int i = 0; i < rates.length; i++) {
+			this.probabilities[i] = rates[i] / 100;
+		}
+		this.random = random;
+	}
+
+	@Override
+	public boolean inject(Fault fault) {
+		return occurs(this.probabilities[fault.ordinal()]);
+	}
+
+	@Override
+	public int nextInt(int bound) {
+		return this.random.nextInt(bound);
+	}
+
+	/**
+	 * Draws an event of the given probability. Certain and impossible events draw nothing.
+	 * @param probability The probability, from 0 to 1.
+	 * @return True if the event occurs.
+	 */
+	protected boolean occurs(double probability) {
+		if (probability <= 0) {
+			return false;
+		}
+		return probability >= 1 || this.random.nextDouble() < probability;
+	}
+}
@@ -0,0 +1,62 @@
+package com.wfong.fault;
+
+/**
+ * This enum lists the faults injected into a ring, with the rates the emulator has always used.
+ * @author William Fong
+ *
+ */
+public enum Fault {
+	/**
+	 * A byte of a transmitted Frame is lost on the wire.
+	 */
+	GARBLE(0, true),
+	/**
+	 * A destination rejects a Frame addressed to it.
+	 */
+	REJECT(20, false),
+	/**
+	 * A source fails to remove its acknowledged Frame from the ring.
+	 */
+	ORPHAN(2, false),
+	/**
+	 * A Node loses the token instead of passing it on.
+	 */
+	TOKEN_LOSS(5, true);
+
+	private final double defaultRate;
+	private final boolean channelFault;
+
+	private Fault(double defaultRate, boolean channelFault) {
+		this.defaultRate = defaultRate;
+		this.channelFault = channelFault;
+	}
+
+	/**
+	 * Returns how often the fault occurs unless configured otherwise.
+	 * @return The rate in percent.
+	 */
+	public double getDefaultRate() {
+		return this.defaultRate;
+	}
+
+	/**
+	 * Returns true for faults of the link to the downstream Node, which come in bursts when the
+	 * link has a burst loss model.
+	 * @return True if the link causes the fault.
+	 */
+	public boolean isChannelFault() {
+		return this.channelFault;
+	}
+
+	/**
+	 * Returns the default rate of every fault.
+	 * @return The rates in percent, indexed by ordinal.
+	 */
+	public static double[] defaultRates() {
+		double[] rates = new double[values().length];
+		for (Fault fault : values()) {
+			rates[fault.ordinal()] = fault.defaultRate;
+		}
+		return rates;
+	}
+}
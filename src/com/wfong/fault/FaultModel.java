@@ -0,0 +1,24 @@
+package com.wfong.fault;
+
+/**
+ * This interface decides when a Node injects a fault. Every Node owns its own model, so models
+ * may keep state, such as whether their link is in a burst of losses, without synchronization.<br>
+ * Models are queried on every transmitted Frame and must not allocate.
+ * @author William Fong
+ *
+ */
+public interface FaultModel {
+	/**
+	 * Decides whether a fault occurs at this opportunity.
+	 * @param fault The kind of fault.
+	 * @return True to inject the fault.
+	 */
+	public boolean inject(Fault fault);
+
+	/**
+	 * Draws a value for the details of a fault, such as which byte of a Frame is lost.
+	 * @param bound The upper bound (exclusive), must be positive.
+	 * @return A value from 0 to bound - 1.
+	 */
+	public int nextInt(int bound);
+}
@@ -0,0 +1,55 @@
+package com.wfong.fault;
+
+/**
+ * This class makes a Node's link lose bytes and tokens in bursts, following the Gilbert-Elliott
+ * model: the link alternates between a good state, where channel faults occur at their usual rate,
+ * and a bad state, where they occur at the burst loss rate. The state may change before every
+ * transmission.<br>
+ * Faults of the Nodes themselves, rejects and orphans, stay independent.
+ * @author William Fong
+ *
+ */
+public class GilbertElliottFaultModel extends BernoulliFaultModel {
+	//Probability of entering and of leaving the bad state at each transmission
+	private final double enterBad;
+	private final double leaveBad;
+	//Probability of a channel fault while in the bad state
+	private final double badLoss;
+	private boolean bad;
+
+	/**
+	 * Creates a model whose decisions are drawn from a seeded generator. The link starts in the good state.
+	 * @param rates The rate of each fault in the good state in percent, indexed by ordinal.
+	 * @param enterBad The chance of a burst starting at a transmission, in percent.
+	 * @param leaveBad The chance of a burst ending at a transmission, in percent. The mean burst
+	 * lasts 100 / leaveBad transmissions.
+	 * @param badLoss The rate of channel faults during a burst, in percent.
+	 * @param seed The seed of the generator.
+	 */
+	public GilbertElliottFaultModel(double[] rates, double enterBad, double leaveBad, double badLoss, long seed) {
+		super(rates, seed);
+		this.enterBad = enterBad / 100;
+		this.leaveBad = leaveBad / 100;
+		this.badLoss = badLoss / 100;
+		this.bad = false;
+	}
+
+	@Override
+	public boolean inject(Fault fault) {
+		if (!fault.isChannelFault()) {
+			return super.inject(fault);
+		}
+		if (occurs(this.bad ? this.leaveBad : this.enterBad)) {
+			this.bad = !this.bad;
+		}
+		return this.bad ? occurs(this.badLoss) : super.inject(fault);
+	}
+
+	/**
+	 * Returns true while the link is in a burst of losses.
+	 * @return True in the bad state.
+	 */
+	public boolean isBad() {
+		return this.bad;
+	}
+}
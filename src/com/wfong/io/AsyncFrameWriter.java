@@ -0,0 +1,230 @@
+package com.wfong.io;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This class writes delivered Frames to an output file in the background.<br>
+ * The Node only copies the Frame into a bounded queue and goes back to forwarding. The output
+ * files of every Node are written by a few writer threads shared by the whole JVM, so a ring
+ * does not need a thread per Node for its output. A writer drains one batch of a file's queue,
+ * formats each Frame as "source,destination,size,data" and writes it through a large buffer,
+ * then gives the thread to the next file. The Node only blocks if the queue is full.<br>
+ * The buffers Frames are copied into are recycled once written, so delivering does not allocate.
+ * @author William Fong
+ *
+ */
+public class AsyncFrameWriter implements FrameSink, Runnable {
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+	public static final int BUFFER_SIZE = 64 * 1024;
+	//Number of threads writing the output files of every Node
+	public static final int WRITER_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private static final ExecutorService WRITERS = Executors.newFixedThreadPool(WRITER_THREADS, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "Frame Writer " + this.count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	//Queued after the last Frame to close the file
+	private static final byte[] END_OF_STREAM = new byte[0];
+	private BlockingQueue<byte[]> queue;
+	//Buffers already written, reused for later Frames
+	private BlockingQueue<byte[]> freeBuffers;
+	private List<byte[]> batch;
+	private FileOutputStream file;
+	private OutputStream output;
+	private Durability durability;
+	private String name;
+	//Set while a writer thread has been asked to drain the queue
+	private AtomicBoolean scheduled;
+	//Released once the file is closed or writing failed
+	private CountDownLatch finished;
+	private boolean closed;
+	private volatile IOException failure;
+
+	/**
+	 * Opens an output file.
+	 * @param fileName The output file.
+	 * @param durability When the file is forced to disk.
+	 * @param name The name of the writer, used in error messages.
+	 * @throws IOException If the file could not be opened.
+	 */
+	public AsyncFrameWriter(String fileName, Durability durability, String name) throws IOException {
+		this(fileName, durability, name, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Opens an output file.
+	 * @param fileName The output file.
+	 * @param durability When the file is forced to disk.
+	 * @param name The name of the writer, used in error messages.
+	 * @param queueCapacity The number of Frames that may wait for the writer.
+	 * @throws IOException If the file could not be opened.
+	 */
+	public AsyncFrameWriter(String fileName, Durability durability, String name, int queueCapacity) throws IOException {
+		this.queue = new ArrayBlockingQueue<byte[]>(queueCapacity);
+		this.freeBuffers = new ArrayBlockingQueue<byte[]>(queueCapacity);
+		this.batch = new ArrayList<byte[]>(queueCapacity);
+		this.file = new FileOutputStream(fileName);
+		this.output = new BufferedOutputStream(this.file, BUFFER_SIZE);
+		this.durability = durability;
+		this.name = name;
+		this.scheduled = new AtomicBoolean(false);
+		this.finished = new CountDownLatch(1);
+		this.closed = false;
+	}
+
+	@Override
+	public void deliver(STPLPFrame frame) {
+		if (this.closed || this.failure != null) {
+			return;
+		}
+		int frameLength = frame.getFrameLength();
+		byte[] buffer = this.freeBuffers.poll();
+		if (buffer == null || buffer.length < frameLength) {
+			buffer = new byte[Math.max(frameLength, STPLPFrame.MAX_FRAME_LENGTH)];
+		}
+		System.arraycopy(frame.getFrame(), 0, buffer, 0, frameLength);
+		enqueue(buffer);
+	}
+
+	/**
+	 * Returns the number of Frames that can be delivered without blocking.
+	 * @return The free space in the queue.
+	 */
+	@Override
+	public int getRemainingCapacity() {
+		return this.queue.remainingCapacity();
+	}
+
+	/**
+	 * Queues a Frame for the writer, waiting for space if necessary.
+	 * @return False if the calling thread was interrupted before the Frame was queued.
+	 */
+	private boolean enqueue(byte[] frameValue) {
+		try {
+			this.queue.put(frameValue);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.err.println("Interrupted while queueing output for " + this.name);
+			return false;
+		}
+		schedule();
+		return true;
+	}
+
+	/**
+	 * Asks a writer thread to drain the queue, unless one already has been.
+	 */
+	private void schedule() {
+		if (this.scheduled.compareAndSet(false, true)) {
+			WRITERS.execute(this);
+		}
+	}
+
+	/**
+	 * Writes one batch of queued Frames on a shared writer thread.
+	 */
+	@Override
+	public void run() {
+		try {
+			this.queue.drainTo(this.batch);
+			for (byte[] frameValue : this.batch) {
+				if (frameValue == END_OF_STREAM) {
+					this.batch.clear();
+					this.output.close();
+					this.finished.countDown();
+					return;
+				}
+				writeFrame(frameValue);
+				this.freeBuffers.offer(frameValue);
+			}
+			this.batch.clear();
+			if (this.durability == Durability.PER_BATCH) {
+				//Group commit: one flush and sync for the whole batch
+				this.output.flush();
+				this.file.getChannel().force(false);
+			}
+		} catch (IOException e) {
+			this.failure = e;
+			System.err.println("Could not write output file: " + e.getMessage());
+			//Keep the Node from blocking on a writer that has stopped
+			this.queue.clear();
+			this.finished.countDown();
+			return;
+		}
+		//Let the other files have the thread, come back for Frames queued meanwhile
+		this.scheduled.set(false);
+		if (!this.queue.isEmpty()) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Writes one Frame as a line of the output file.
+	 */
+	private void writeFrame(byte[] frameValue) throws IOException {
+		int dataSize = STPLPFrame.dataSize(frameValue, 0);
+		writeNumber(frameValue[STPLPFrame.SOURCE_OFFSET] & 0xff);
+		this.output.write(',');
+		writeNumber(frameValue[STPLPFrame.DESTINATION_OFFSET] & 0xff);
+		this.output.write(',');
+		writeNumber(dataSize);
+		this.output.write(',');
+		this.output.write(frameValue, STPLPFrame.headerLength(frameValue, 0), dataSize);
+		this.output.write('\n');
+	}
+
+	/**
+	 * Writes a non-negative value in decimal.
+	 */
+	private void writeNumber(int value) throws IOException {
+		int divisor = 1;
+		while (divisor <= value / 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			this.output.write('0' + (value / divisor) % 10);
+		}
+	}
+
+	/**
+	 * Waits for every queued Frame to be written, then closes the output file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		if (this.failure == null && !enqueue(END_OF_STREAM)) {
+			return;
+		}
+		try {
+			this.finished.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.failure != null) {
+			throw this.failure;
+		}
+	}
+}
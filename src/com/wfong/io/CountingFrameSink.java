@@ -0,0 +1,40 @@
+package com.wfong.io;
+
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This class counts the Frames delivered to a Node without writing them anywhere. It never
+ * blocks, so it suits runs where only the ring itself is of interest.
+ * @author William Fong
+ *
+ */
+public class CountingFrameSink implements FrameSink {
+	private long frames;
+	private long bytes;
+
+	@Override
+	public void deliver(STPLPFrame frame) {
+		this.frames++;
+		this.bytes += frame.getDataSize();
+	}
+
+	/**
+	 * Returns the number of Frames delivered.
+	 * @return The number of Frames.
+	 */
+	public long getFrames() {
+		return this.frames;
+	}
+
+	/**
+	 * Returns the number of data bytes delivered.
+	 * @return The number of bytes.
+	 */
+	public long getBytes() {
+		return this.bytes;
+	}
+
+	@Override
+	public void close() {
+	}
+}
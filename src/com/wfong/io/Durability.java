@@ -0,0 +1,32 @@
+package com.wfong.io;
+
+/**
+ * This enum lists when an output file is forced to disk.
+ * @author William Fong
+ *
+ */
+public enum Durability {
+	/**
+	 * Every batch of Frames is flushed and forced to disk before the next batch is written.
+	 */
+	PER_BATCH,
+	/**
+	 * Frames are only flushed when the Node shuts down.
+	 */
+	ON_SHUTDOWN;
+
+	/**
+	 * Parses a durability mode from the command line.
+	 * @param name "batch" or "shutdown" (case insensitive).
+	 * @return The durability mode.
+	 */
+	public static Durability parse(String name) {
+		if (name.equalsIgnoreCase("batch")) {
+			return PER_BATCH;
+		}
+		if (name.equalsIgnoreCase("shutdown")) {
+			return ON_SHUTDOWN;
+		}
+		return valueOf(name.toUpperCase());
+	}
+}
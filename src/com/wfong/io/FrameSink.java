@@ -0,0 +1,35 @@
+package com.wfong.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This interface describes where a Node writes the Frames delivered to it.
+ * @author William Fong
+ *
+ */
+public interface FrameSink extends Closeable {
+	/**
+	 * Records a delivered Frame. The Frame may be reused by the caller once this method returns.
+	 * @param frame The accepted Frame.
+	 */
+	public void deliver(STPLPFrame frame);
+
+	/**
+	 * Returns the number of Frames that can be delivered without blocking, which a Node advertises
+	 * as its receive credits.
+	 * @return The free space, Integer.MAX_VALUE if the sink never blocks.
+	 */
+	public default int getRemainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Writes out every delivered Frame and releases the sink.
+	 * @throws IOException If the Frames could not be written.
+	 */
+	@Override
+	public void close() throws IOException;
+}
@@ -0,0 +1,28 @@
+package com.wfong.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This interface describes where a Node reads the Frames it has to transmit from.
+ * @author William Fong
+ *
+ */
+public interface FrameSource extends Closeable {
+	/**
+	 * Fills a Frame with the next record.
+	 * @param frame The Frame to fill.
+	 * @param sourceAddress The address of the transmitting Node.
+	 * @return True if the Frame was filled, false once every record has been read.
+	 * @throws IOException If the records could not be read.
+	 */
+	public boolean nextFrame(STPLPFrame frame, byte sourceAddress) throws IOException;
+
+	/**
+	 * Returns an estimate of the number of bytes still to be read.
+	 * @return The number of unread bytes.
+	 */
+	public long remaining();
+}
@@ -0,0 +1,166 @@
+package com.wfong.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This class reads "destination,size,data[,priority]" records from a memory mapped input file.<br>
+ * Payloads may be up to {@link STPLPFrame#MAX_EXTENDED_DATA_SIZE} bytes, larger ones than a standard
+ * frame holds are sent in extended frames.<br>
+ * Records are parsed directly from the mapped bytes and the payload is copied straight into the
+ * Frame's buffer, so no Strings are created while the Node holds the token.
+ * @author William Fong
+ *
+ */
+public class MappedFrameSource implements FrameSource {
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	//Number of the line being parsed, for error messages
+	private int line;
+
+	/**
+	 * Maps an input file into memory.
+	 * @param path The input file.
+	 * @throws IOException If the file does not exist or cannot be mapped.
+	 */
+	public MappedFrameSource(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		long size = this.channel.size();
+		if (size > Integer.MAX_VALUE) {
+			this.channel.close();
+			throw new IOException("Input file " + path + " is too large to map");
+		}
+		this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		this.line = 0;
+	}
+
+	@Override
+	public boolean nextFrame(STPLPFrame frame, byte sourceAddress) throws IOException {
+		while (this.buffer.hasRemaining()) {
+			this.line++;
+			byte first = this.buffer.get(this.buffer.position());
+			if (first == '\n' || first == '\r') {
+				//Blank line
+				skipLine();
+				continue;
+			}
+			int destination = parseNumber();
+			int dataSize = parseNumber();
+			if (destination < 0 || dataSize < 0 || dataSize > STPLPFrame.MAX_EXTENDED_DATA_SIZE) {
+				System.err.println("Skipping malformed record on line " + this.line);
+				skipLine();
+				continue;
+			}
+			int length = payloadLength(dataSize);
+			frame.setDataHeader((byte) destination, sourceAddress, length);
+			this.buffer.get(frame.getFrame(), frame.getDataOffset(), length);
+			frame.updateChecksum();
+			int priority = parsePriority();
+			skipLine();
+			frame.setFramePriority(priority);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the length of the payload starting at the current position.<br>
+	 * The payload is binary: it is exactly the declared size whenever the record ends right after
+	 * it, even if it contains line breaks. Otherwise it runs to the end of the line, but never past
+	 * the declared size.
+	 * @param dataSize The declared size.
+	 * @return The number of payload bytes.
+	 */
+	private int payloadLength(int dataSize) {
+		int start = this.buffer.position();
+		int end = start + dataSize;
+		if (end == this.buffer.limit()) {
+			return dataSize;
+		}
+		if (end < this.buffer.limit()) {
+			byte next = this.buffer.get(end);
+			if (next == '\n' || next == '\r' || next == ',') {
+				return dataSize;
+			}
+		}
+		int length = 0;
+		while (length < dataSize && start + length < this.buffer.limit()) {
+			byte value = this.buffer.get(start + length);
+			if (value == '\n' || value == '\r') {
+				break;
+			}
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Parses a decimal field terminated by a comma.
+	 * @return The value, or -1 if the field is not a number.
+	 */
+	private int parseNumber() {
+		int value = 0;
+		int digits = 0;
+		while (this.buffer.hasRemaining()) {
+			byte c = this.buffer.get(this.buffer.position());
+			if (c == ',') {
+				this.buffer.position(this.buffer.position() + 1);
+				return digits > 0 ? value : -1;
+			}
+			if (c < '0' || c > '9' || digits > 9) {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+			digits++;
+			this.buffer.position(this.buffer.position() + 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * Parses the optional priority field following the data.
+	 * @return The priority, 0 if the record has none.
+	 */
+	private int parsePriority() {
+		if (!this.buffer.hasRemaining() || this.buffer.get(this.buffer.position()) != ',') {
+			return 0;
+		}
+		this.buffer.position(this.buffer.position() + 1);
+		int priority = 0;
+		while (this.buffer.hasRemaining()) {
+			byte c = this.buffer.get(this.buffer.position());
+			if (c < '0' || c > '9') {
+				break;
+			}
+			priority = Math.min(priority * 10 + (c - '0'), STPLPFrame.MAX_PRIORITY);
+			this.buffer.position(this.buffer.position() + 1);
+		}
+		return priority;
+	}
+
+	/**
+	 * Moves past the end of the current line.
+	 */
+	private void skipLine() {
+		while (this.buffer.hasRemaining()) {
+			if (this.buffer.get() == '\n') {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public long remaining() {
+		return this.buffer.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
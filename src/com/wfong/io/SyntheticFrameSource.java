@@ -0,0 +1,71 @@
+package com.wfong.io;
+
+import java.util.Random;
+
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This class generates Frames instead of reading them from an input file. Destinations and
+ * payload sizes are drawn from a random number generator, so a seeded source always produces
+ * the same Frames.<br>
+ * The payload is filled with lower case letters, so delivered Frames can still be written out
+ * like those of an input file.
+ * @author William Fong
+ *
+ */
+public class SyntheticFrameSource implements FrameSource {
+	private Random random;
+	private int numberOfNodes;
+	private int minimumSize;
+	private int maximumSize;
+	private int framesLeft;
+	private byte[] payload;
+
+	/**
+	 * Creates a source of a fixed number of Frames.
+	 * @param random The random number generator drawing destinations and sizes.
+	 * @param frames The number of Frames to generate.
+	 * @param numberOfNodes The number of Relay Nodes, destinations are drawn from 1 to numberOfNodes.
+	 * @param minimumSize The smallest payload in bytes.
+	 * @param maximumSize The largest payload in bytes, at most {@link STPLPFrame#MAX_EXTENDED_DATA_SIZE}.
+	 */
+	public SyntheticFrameSource(Random random, int frames, int numberOfNodes, int minimumSize, int maximumSize) {
+		if (numberOfNodes < 2 || minimumSize < 0 || maximumSize < minimumSize || maximumSize > STPLPFrame.MAX_EXTENDED_DATA_SIZE) {
+			throw new IllegalArgumentException("Cannot generate payloads of " + minimumSize + "-" + maximumSize + " bytes for " + numberOfNodes + " Nodes");
+		}
+		this.random = random;
+		this.numberOfNodes = numberOfNodes;
+		this.minimumSize = minimumSize;
+		this.maximumSize = maximumSize;
+		this.framesLeft = frames;
+		this.payload = new byte[maximumSize];
+		for (int i = 0; i < maximumSize; i++) {
+			this.payload[i] = (byte) ('a' + i % 26);
+		}
+	}
+
+	@Override
+	public boolean nextFrame(STPLPFrame frame, byte sourceAddress) {
+		if (this.framesLeft == 0) {
+			return false;
+		}
+		this.framesLeft--;
+		//Any Node but the source
+		int destination = 1 + this.random.nextInt(this.numberOfNodes - 1);
+		if (destination >= (sourceAddress & 0xff)) {
+			destination++;
+		}
+		int dataSize = this.minimumSize + this.random.nextInt(this.maximumSize - this.minimumSize + 1);
+		frame.setData((byte) destination, sourceAddress, this.payload, 0, dataSize);
+		return true;
+	}
+
+	@Override
+	public long remaining() {
+		return (long) this.framesLeft * (this.minimumSize + this.maximumSize) / 2;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,26 @@
+package com.wfong.nodes;
+
+/**
+ * This interface is the time source a Node measures holding times, token rotations and
+ * retransmission deadlines against.<br>
+ * Nodes use the system clock unless an engine running them on virtual time supplies its own.
+ * @author William Fong
+ *
+ */
+public interface Clock {
+	/**
+	 * The JVM's monotonic clock.
+	 */
+	public static final Clock SYSTEM = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	/**
+	 * Returns the current time. Only differences between two readings are meaningful.
+	 * @return The current time in nanoseconds.
+	 */
+	public long nanoTime();
+}
@@ -2,21 +2,53 @@ package com.wfong.nodes;
 
 import java.net.InetAddress;
 import java.net.SocketTimeoutException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.wfong.token.STPLPFrame;
+import com.wfong.transport.TcpTransport;
+import com.wfong.transport.Transport;
 
 /**
  * This class implements Monitor Node behavior and is a subclass of the Node class.
  * @author William
  *
  */
-public class MonitorNode extends Node implements Runnable{
+public class MonitorNode extends Node implements Runnable, NodeStateMachine {
 	private Map<Integer, Integer> myNetwork;
 	private InetAddress myAddress;
 	private int port;
+	//Token rotation statistics
+	private long lastTokenTime;
+	private long rotationCount;
+	private long rotationTotal;
+	private long rotationMax;
+	//Number of tokens issued because the token was lost or a garbled Frame was drained
+	private int lostTokens;
+	//Stamp of the token the Monitor last issued, 0 for the ring's first token
+	private int tokenStamp;
+	//Number of tokens removed because a newer token had been issued
+	private int purgedTokens;
+	//Recent rotation times the lost token time out is derived from
+	public static final int ROTATION_SAMPLES = 32;
+	//Rotations needed before the time out is first adjusted
+	private static final int MIN_SAMPLES = 8;
+	//Shortest lost token time out in milliseconds
+	public static final int MIN_TIME_OUT = 2;
+	//Percentile of the recent rotations the time out starts from
+	private static final int TIME_OUT_PERCENTILE = 90;
+	//Mean rotations added to the percentile as a margin
+	private static final int TIME_OUT_MARGIN = 2;
+	private long[] rotationSamples;
+	//Scratch copy of the samples, sorted to find the percentile
+	private long[] sortedSamples;
+	private int sampleCount;
+	private int nextSample;
+	private boolean adaptiveTimeOut;
+	//The configured time out, never exceeded by the adaptive one
+	private int maxTimeOut;
 	
 	public MonitorNode() {
 		super();
@@ -28,10 +60,29 @@ public class MonitorNode extends Node implements Runnable{
 	 * @param timeOut The time out period in milliseconds.
 	 */
 	public MonitorNode(int NodeName, int timeOutPeriod	) {
-		super(NodeName, timeOutPeriod);
+		this(NodeName, timeOutPeriod, new TcpTransport());
+	}
+	
+	/**
+	 * This constructor creates a Monitor node with the specified ID, time out period and transport.
+	 * @param NodeName The Node ID.
+	 * @param timeOutPeriod The time out period in milliseconds.
+	 * @param transport The transport linking the Monitor to its neighbors.
+	 */
+	public MonitorNode(int NodeName, int timeOutPeriod, Transport transport) {
+		super(NodeName, timeOutPeriod, transport);
 		this.myAddress = getLocalAddress();
-		this.port = this.addServerSocket(myAddress);
+		this.port = this.openInput();
 		this.myNetwork = new HashMap<Integer, Integer>();
+		this.lostTokens = 0;
+		this.tokenStamp = 0;
+		this.purgedTokens = 0;
+		this.rotationSamples = new long[ROTATION_SAMPLES];
+		this.sortedSamples = new long[ROTATION_SAMPLES];
+		this.sampleCount = 0;
+		this.nextSample = 0;
+		this.adaptiveTimeOut = false;
+		this.maxTimeOut = timeOutPeriod;
 		//System.out.println("Monitor Node Listening on Port " + this.port);
 	}
 	
@@ -52,62 +103,208 @@ public class MonitorNode extends Node implements Runnable{
 	 */
 	private int MonitorNetwork() {
 		STPLPFrame inputFrame = null;
-			try {
-				inputFrame = readSocket();
-				//Check for Garbled Frame
-				if (!isFrameHealthy(inputFrame)) {
-					//Frame is Garbled
-					if (inputFrame == null) {
-						writeToSocket(STPLPFrame.generateToken());
-						return 0;
-					}
-					this.drainInputSocket();
-					writeToSocket(STPLPFrame.generateToken());
-					return 0;
-				}
-				//Check for Orphan Frame
-				if (!inputFrame.isToken() && inputFrame.monitorBit()) {
-					//System.out.println("MONITOR NODE: Found Orphan Frame");
-					inputFrame = null; //'Drain' the frame
-					return 0;
-				} else if (!inputFrame.isToken()) {
-					//This is the Frame's first encounter with Monitor
-					//Set the monitor bit
-					inputFrame.setMonitorBit();
-					writeToSocket(inputFrame);
-					return 0;
-				}
-				//Check for Transmission Completed Signals
-				if (inputFrame.getFrameStatus() == 5) {
-					//The frame's source has completed all transmission
-					System.out.println("MONITOR: " + "Node " + inputFrame.getSourceAddress() + " has no more data to send...");
-					this.myNetwork.put(inputFrame.getSourceAddress() & 0xff, 1);
-					if (areAllNodesDone()) {
-						//Send out the kill signal
-						writeToSocket(STPLPFrame.generateKillSig());
-					}
-				return 0;
-				}
-				//Check for Kill Signal
-				if (inputFrame.getFrameStatus() == 4) {
-					if (!areAllNodesDone()) {
-						System.err.println("CRITICAL ERROR: Kill Signal Received: Not all Nodes Have Completed!");
-					}
-					this.closeNode();
-					return 1;
-				}
-				//Check for token
-				if (inputFrame.isToken()) {
-					writeToSocket(STPLPFrame.generateToken());
-					return 0;
+		try {
+			inputFrame = readSocket();
+		} catch (SocketTimeoutException e) {
+			//Nothing arrived in time, the token has been lost
+			return processFrame(null);
+		}
+		int state = processFrame(inputFrame);
+		releaseFrame(inputFrame);
+		return state;
+	}
+	
+	/**
+	 * This method handles one Frame received by the Monitor.
+	 * @param inputFrame The received Frame, null if nothing arrived before the time out.
+	 * @return Returns 1 once the Kill Signal has come back around the ring, 0 otherwise.
+	 */
+	private int processFrame(STPLPFrame inputFrame) {
+		//Check for Lost Token
+		if (inputFrame == null) {
+			this.lastTokenTime = nanoTime(); //Time the new token's first rotation
+			this.lostTokens++;
+			//Stamp the new token, the old one may only have been late and is purged if it comes back
+			this.tokenStamp = this.tokenStamp % STPLPFrame.MAX_SEQUENCE_NUMBER + 1;
+			STPLPFrame token = getFramePool().acquire().setToken(STPLPFrame.generateToken(), this.tokenStamp);
+			writeToSocket(token);
+			releaseFrame(token);
+			return 0;
+		}
+		//Check for Garbled Frame
+		if (!isFrameHealthy(inputFrame)) {
+			//Drop only this Frame, its sender retransmits and a lost token is caught by the time out
+			return 0;
+		}
+		//Check for Orphan Frame
+		if (!inputFrame.isToken() && inputFrame.monitorBit()) {
+			//System.out.println("MONITOR NODE: Found Orphan Frame");
+			inputFrame = null; //'Drain' the frame
+			return 0;
+		} else if (!inputFrame.isToken()) {
+			//This is the Frame's first encounter with Monitor
+			//Set the monitor bit
+			inputFrame.setMonitorBit();
+			writeToSocket(inputFrame);
+			return 0;
+		}
+		//Check for Transmission Completed Signals
+		if (inputFrame.getFrameStatus() == 5) {
+			//The frame's source has completed all transmission
+			System.out.println("MONITOR: " + "Node " + inputFrame.getSourceAddress() + " has no more data to send...");
+			this.myNetwork.put(inputFrame.getSourceAddress() & 0xff, 1);
+			if (areAllNodesDone()) {
+				//Send out the kill signal
+				writeToSocket(STPLPFrame.generateKillSig());
+			}
+			return 0;
+		}
+		//Check for Kill Signal
+		if (inputFrame.getFrameStatus() == 4) {
+			if (!areAllNodesDone()) {
+				System.err.println("CRITICAL ERROR: Kill Signal Received: Not all Nodes Have Completed!");
+			}
+			this.closeNode();
+			return 1;
+		}
+		//Check for token
+		if (inputFrame.isToken()) {
+			if (inputFrame.getSequenceNumber() != this.tokenStamp) {
+				//A token issued before the current one, only one token may circulate
+				this.purgedTokens++;
+				if (this.adaptiveTimeOut) {
+					//The token was late, not lost: back the time out off
+					this.setTimeOutPeriod(Math.min(this.maxTimeOut, 2 * this.getTimeOutPeriod()));
 				}
-				writeToSocket(inputFrame);
 				return 0;
-				
-				} catch (SocketTimeoutException e) {
-					writeToSocket(STPLPFrame.generateToken());
-					return 0;
-				}
+			}
+			recordRotation();
+			writeToSocket(inputFrame); //Keep the token's priority and reservation
+			return 0;
+		}
+		writeToSocket(inputFrame);
+		return 0;
+	}
+	
+	@Override
+	public void start() {
+		System.out.println("Initialized Monitor Node");
+	}
+	
+	@Override
+	public boolean onFrame(STPLPFrame frame) {
+		int state = processFrame(frame);
+		releaseFrame(frame);
+		return state == 1;
+	}
+	
+	@Override
+	public boolean onTimeOut() {
+		//Nothing arrived in time, the token has been lost
+		return processFrame(null) == 1;
+	}
+	
+	/**
+	 * Records the time since the token last passed the Monitor.
+	 */
+	private void recordRotation() {
+		long now = nanoTime();
+		if (this.lastTokenTime != 0) {
+			long rotation = now - this.lastTokenTime;
+			this.rotationCount++;
+			this.rotationTotal += rotation;
+			this.rotationMax = Math.max(this.rotationMax, rotation);
+			if (this.adaptiveTimeOut) {
+				addRotationSample(rotation);
+			}
+		}
+		this.lastTokenTime = now;
+	}
+	
+	/**
+	 * Adds a rotation to the sample window and adjusts the lost token time out.
+	 */
+	private void addRotationSample(long rotation) {
+		this.rotationSamples[this.nextSample] = rotation;
+		this.nextSample = (this.nextSample + 1) % ROTATION_SAMPLES;
+		this.sampleCount = Math.min(this.sampleCount + 1, ROTATION_SAMPLES);
+		if (this.sampleCount >= MIN_SAMPLES) {
+			updateTimeOut();
+		}
+	}
+	
+	/**
+	 * Sets the lost token time out to the 90th percentile of the sample window plus two mean
+	 * rotations, and never below {@link #MIN_TIME_OUT}.<br>
+	 * No Frame at all arriving for that long means the token is gone, so recovery takes about
+	 * three rotations instead of the configured worst case. A token that was only late is purged
+	 * when it comes back and doubles the time out, so an early time out costs a rotation but never
+	 * leaves two tokens circulating.
+	 */
+	private void updateTimeOut() {
+		long total = 0;
+		for (int i = 0; i < this.sampleCount; i++) {
+			this.sortedSamples[i] = this.rotationSamples[i];
+			total += this.rotationSamples[i];
+		}
+		Arrays.sort(this.sortedSamples, 0, this.sampleCount);
+		long percentile = this.sortedSamples[(this.sampleCount - 1) * TIME_OUT_PERCENTILE / 100];
+		long timeOutNanos = percentile + TIME_OUT_MARGIN * total / this.sampleCount;
+		//Round up to whole milliseconds
+		int timeOut = (int) ((timeOutNanos + 999999) / 1000000);
+		timeOut = Math.min(this.maxTimeOut, Math.max(MIN_TIME_OUT, timeOut));
+		if (timeOut != this.getTimeOutPeriod()) {
+			this.setTimeOutPeriod(timeOut);
+		}
+	}
+	
+	/**
+	 * Selects whether the lost token time out is derived from measured rotation times.<br>
+	 * The time out given at construction remains the upper bound.
+	 * @param adaptiveTimeOut True to adapt the time out.
+	 */
+	public void setAdaptiveTimeOut(boolean adaptiveTimeOut) {
+		this.adaptiveTimeOut = adaptiveTimeOut;
+	}
+	
+	/**
+	 * Returns the number of tokens the Monitor issued to replace a lost one.
+	 * @return The number of lost tokens.
+	 */
+	public int getLostTokens() {
+		return this.lostTokens;
+	}
+	
+	/**
+	 * Returns the number of surplus tokens the Monitor removed from the ring.
+	 * @return The number of purged tokens.
+	 */
+	public int getPurgedTokens() {
+		return this.purgedTokens;
+	}
+	
+	/**
+	 * Returns the number of complete token rotations observed by the Monitor.
+	 * @return The number of timed rotations.
+	 */
+	public long getRotationCount() {
+		return this.rotationCount;
+	}
+	
+	/**
+	 * Returns the mean token rotation time.
+	 * @return The mean rotation time in nanoseconds, 0 if no rotation was timed.
+	 */
+	public long getMeanRotationTime() {
+		return this.rotationCount == 0 ? 0 : this.rotationTotal / this.rotationCount;
+	}
+	
+	/**
+	 * Returns the longest token rotation time.
+	 * @return The longest rotation time in nanoseconds.
+	 */
+	public long getMaxRotationTime() {
+		return this.rotationMax;
 	}
 	
 	/**
@@ -123,10 +320,10 @@ public class MonitorNode extends Node implements Runnable{
 			return false; //Values above 5 on Frame Control are not accepted
 		}
 		//Check if Data Length is correct
-		int frameLength = frame.getFrame().length;
+		int frameLength = frame.getFrameLength();
 		int dataSize = frame.getDataSize();
-		//System.out.println("\tFrame Length  " + frameLength + " Frame Data Size + 6: " + (dataSize + 6));
-		if (frameLength != dataSize + 6) {
+		//System.out.println("\tFrame Length  " + frameLength + " Frame Data Size + Header + Status: " + (dataSize + 8));
+		if (frameLength != dataSize + frame.getDataOffset() + STPLPFrame.TRAILER_LENGTH) {
 			//System.out.println("FRAME Error: Incorrect Data Size");
 			return false;
 		}
@@ -134,6 +331,10 @@ public class MonitorNode extends Node implements Runnable{
 			//sSystem.out.println("FRAME Error: Incorrect Frame Status Byte");
 			return false;
 		}
+		if (!frame.hasValidChecksum()) {
+			//System.out.println("FRAME Error: Frame Check Sequence mismatch");
+			return false;
+		}
 		return true;
 		} catch (NullPointerException e) {
 			return false;
@@ -165,10 +366,10 @@ public class MonitorNode extends Node implements Runnable{
 	
 	@Override
 	public void run(){
-		System.out.println("Initialized Monitor Node");
 		//long simTime;
 		//simTime = System.currentTimeMillis();
 		this.acceptClient();
+		this.start();
 		while (true) {
 			if(MonitorNetwork() == 1) {
 				//System.out.println(((System.currentTimeMillis() - simTime) / 1000));
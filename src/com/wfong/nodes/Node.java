@@ -4,29 +4,50 @@
 package com.wfong.nodes;
 import java.io.*;
 import java.net.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
+import com.wfong.fault.BernoulliFaultModel;
+import com.wfong.fault.FaultModel;
+import com.wfong.token.FrameDecoder;
+import com.wfong.token.FramePool;
 import com.wfong.token.STPLPFrame;
+import com.wfong.transport.TcpTransport;
+import com.wfong.transport.Transport;
 
 
 /**
- * This class is the Node Superclass. It contains all the methods to receive and transmit data.
+ * This class is the Node Superclass. It contains all the methods to receive and transmit data.<br>
+ * The bytes themselves are carried by the Node's {@link Transport}, TCP sockets unless another
+ * backend is specified.
  * @author William Fong
  */
 public class Node{
+	//Number of times a connection is attempted before giving up
+	private static final int CONNECT_ATTEMPTS = 10;
 	private int NodeID;
-	private ServerSocket inputSocket;
-	private List<Socket> outputSockets;
-	private Socket clientSocket;
+	private Transport transport;
+	private FrameDecoder decoder;
+	private FramePool framePool;
 	private int timeOutPeriod;
+	private CountDownLatch readyLatch;
+	//Bytes of a passing Frame still to be copied straight to the downstream Node
+	private int cutThroughRemaining;
+	//Number of Frames forwarded without being decoded
+	private long cutThroughFrames;
+	//Time source of the Node and the model of the faults it injects
+	private Clock clock;
+	private FaultModel faultModel;
 	
 	/**
 	 * This is the default constructor for a Node
 	 */
 	protected Node() {
 		super();
-		this.outputSockets = new ArrayList<Socket>();
+		this.transport = new TcpTransport();
+		this.decoder = new FrameDecoder();
+		this.framePool = new FramePool();
+		this.clock = Clock.SYSTEM;
+		this.faultModel = new BernoulliFaultModel();
 		//Run this instantiated object in a new thread
 	}
 	
@@ -35,32 +56,60 @@ public class Node{
 	 * @param NodeName The Node Name
 	 */
 	protected Node(int NodeName, int timeOutPeriod) {
+		this(NodeName, timeOutPeriod, new TcpTransport());
+	}
+	
+	/**
+	 * This constructor allows for the specification of the Node's name and transport.
+	 * @param NodeName The Node Name
+	 * @param timeOutPeriod The read time out period in milliseconds
+	 * @param transport The transport linking this Node to its neighbors
+	 */
+	protected Node(int NodeName, int timeOutPeriod, Transport transport) {
 		//System.out.println("Creating Node: " + NodeName);
 		this.NodeID = NodeName;
 		this.timeOutPeriod = timeOutPeriod;
-		this.outputSockets = new ArrayList<Socket>();
+		this.transport = transport;
+		this.decoder = new FrameDecoder();
+		this.framePool = new FramePool();
+		this.clock = Clock.SYSTEM;
+		this.faultModel = new BernoulliFaultModel();
 	}
 	
 	/**
 	 * This method handles getting the LocalHost address
 	 * @return The LocalHost IP
-	 * @TODO Move this method to the Node Superclass, it is used by all of the subclasses
 	 */
 	public InetAddress getLocalAddress() {
-		try {
-			return InetAddress.getByName("::1");
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
+		return TcpTransport.getLocalAddress();
+	}
+	
+	/**
+	 * Returns the transport used by the Node.
+	 * @return The Node's transport.
+	 */
+	public Transport getTransport() {
+		return this.transport;
+	}
+	
+	/**
+	 * Returns the TCP transport of the Node, or null if the Node uses another backend.
+	 */
+	private TcpTransport tcpTransport() {
+		if (this.transport instanceof TcpTransport) {
+			return (TcpTransport) this.transport;
 		}
+		System.err.println("Error! " + this.NodeID + " does not use TCP sockets!");
 		return null;
 	}
 	
 	/**
 	 * Returns the client socket of the Node.
-	 * @return A Socket object.
+	 * @return A Socket object, or null if the Node does not use TCP.
 	 */
 	public Socket getClientSocket() {
-		return this.clientSocket;
+		TcpTransport tcp = tcpTransport();
+		return tcp == null ? null : tcp.getClientSocket();
 	}
 	
 	/**
@@ -69,9 +118,12 @@ public class Node{
 	 * @param address The address associated with the Socket (Right now is LocalHost)
 	 */
 	public void addServerSocket(int port, InetAddress address) {
+		TcpTransport tcp = tcpTransport();
+		if (tcp == null) {
+			return;
+		}
 		try {
-			this.inputSocket = new ServerSocket(port, 50, address);
-			
+			tcp.bind(port, address);
 		} catch (IOException e) {
 			System.err.println("Error! " + this.NodeID + " had a port number conflict!");
 		} catch (IllegalArgumentException e) {
@@ -85,22 +137,26 @@ public class Node{
 	 * @return The port number the Socket is listening to.
 	 */
 	public int addServerSocket(InetAddress address) {
-		//Iterate through all non-system critical ports until we find a free port
-		for (int i = 1025; i < 49151; i++) {
-			//System.out.println("Node " + this.getNodeID() + ": Attempting port " + i);
-			try {
-				this.inputSocket = new ServerSocket(i, 50, address);
-				return i;
-			} catch (IOException e) {
-				//System.err.println("Error! " + this.NodeName + " had a port number conflict...");
-				continue;
-			} catch (IllegalArgumentException e) {
-				e.printStackTrace();
-			}
+		TcpTransport tcp = tcpTransport();
+		int port = tcp == null ? 0 : tcp.bind(address);
+		if (port == 0) {
+			//Severe error
+			System.err.println("ERROR! " + this.NodeID + " could not find a free port number!");
+		}
+		return port;
+	}
+	
+	/**
+	 * This method opens the input side of the Node's transport.
+	 * @return The port number the Node is listening to, or 0 if the transport does not use ports.
+	 */
+	public int openInput() {
+		try {
+			return this.transport.openInput();
+		} catch (IOException e) {
+			System.err.println("ERROR! " + this.NodeID + " could not open its input: " + e.getMessage());
+			return 0;
 		}
-		//Severe error
-		System.err.println("ERROR! " + this.NodeID + " could not find a free port number!");
-		return 0;
 	}
 	
 	/**
@@ -109,123 +165,238 @@ public class Node{
 	 * @param address The IP address associated with the socket (Right now is LocalHost)
 	 */
 	public void addOutputSocket(int port, InetAddress address) {
-		try {
-			this.outputSockets.add(new Socket(address, port));
-			//System.out.println("Node " + this.NodeID + " created output socket to " + this.outputSockets.get(0).toString());
+		TcpTransport tcp = tcpTransport();
+		if (tcp == null) {
 			return;
-		} catch (UnknownHostException e) {
-			System.err.println(this.NodeID + ": Could not resolve IP!");
-			e.printStackTrace();
-		} catch (IOException e) {
-			System.err.println(this.NodeID + ": Could not create socket! Timeout...");
+		}
+		//Retry with a short, growing back off in case the server is not listening yet
+		long backOff = 10;
+		for (int attempt = 1; ; attempt++) {
 			try {
-				Thread.sleep(1000);
-				addOutputSocket(port, address);
-			} catch (InterruptedException e1) {
-				e1.printStackTrace();
+				tcp.connect(port, address);
+				//System.out.println("Node " + this.NodeID + " created output socket to " + port);
+				return;
+			} catch (UnknownHostException e) {
+				System.err.println(this.NodeID + ": Could not resolve IP!");
+				e.printStackTrace();
+				return;
+			} catch (IOException e) {
+				if (attempt == CONNECT_ATTEMPTS) {
+					System.err.println(this.NodeID + ": Could not create socket! Timeout...");
+					e.printStackTrace();
+					return;
+				}
+				try {
+					Thread.sleep(backOff);
+				} catch (InterruptedException e1) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				backOff = Math.min(backOff * 2, 1000);
 			}
+		}
+	}
+	
+	/**
+	 * This method connects the output of this Node to the input of the downstream Node.
+	 * @param downstream The next Node in the ring.
+	 */
+	public void connectTo(Node downstream) {
+		try {
+			this.transport.connect(downstream.getTransport());
+		} catch (IOException e) {
+			System.err.println(this.NodeID + ": Could not connect to Node " + downstream.getNodeID() + "!");
 			e.printStackTrace();
 		}
 	}
 	
 	
 	/**
-	 * This method listens to the first inputSocket for accept calls.
-	 * This method DOES NOT close the connected socket, it must be closed by another method.
-	 * @return A socket to the connected client
+	 * This method waits for the upstream Node to connect.
+	 * This method DOES NOT close the connection, it must be closed by another method.
 	 */
 	public void acceptClient() {
-		if (!this.inputSocket.isBound()) {
-			System.err.println(this.NodeID + " Cannot accept call! Listening sockets do not exist!");
-			return;
+		try {
+			//System.out.println("Node " + this.NodeID + " listening to connection requests...");
+			this.transport.setTimeOut(this.timeOutPeriod);
+			this.transport.acceptInput();
+			//Connection to a client has now been established
+		} catch (IOException e) {
+			System.err.println(this.NodeID + " Cannot accept call! " + e.getMessage());
 		}
-		this.clientSocket = new Socket();
-		while(!this.clientSocket.isBound()) {
-			try {
-			//	System.out.println("Node " + this.NodeID + " listening to connection requests...");
-				clientSocket = this.inputSocket.accept();
-				//System.out.println("Node " + this.NodeID + ": Client accepted on Socket: " + clientSocket.toString());
-				//Connection to a client has now been established
-				return;
-			} catch (SocketTimeoutException T){
-				System.out.println("Server listen timeout...");
-			} catch (IOException e) {
-				e.printStackTrace();
-				break;
-			}
+		if (this.readyLatch != null) {
+			this.readyLatch.countDown();
 		}
-		return;
 	}
 	
 	/**
-	 * This method returns a read STPLP Frame from the socket
-	 * @return The received STPLP Frame
+	 * Sets the barrier shared by every Node of the ring. Each Node counts it down once it has
+	 * accepted its upstream neighbor.
+	 * @param readyLatch The readiness barrier.
 	 */
-	public STPLPFrame readSocket() throws SocketTimeoutException{
-		DataInputStream input = null;
-		//System.out.println("Node " + this.NodeID + " is now Reading Socket...");
+	public void setReadyLatch(CountDownLatch readyLatch) {
+		this.readyLatch = readyLatch;
+	}
+	
+	/**
+	 * Waits until every Node of the ring has accepted its upstream neighbor.
+	 */
+	protected void awaitRingReady() {
+		if (this.readyLatch == null) {
+			return;
+		}
 		try {
-			//System.out.println("\tNode " + this.getNodeID() + " attempting to accept socket...");
-			clientSocket.setSoTimeout(this.timeOutPeriod);
-			input = new DataInputStream(this.clientSocket.getInputStream());
-			//System.out.println("\tNode " + this.getNodeID() + " got input signal");
-		} catch (IOException e) {
-			e.printStackTrace();
-			return null;
+			this.readyLatch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		STPLPFrame frame = null;
-		//Create buffer of maximum possible frame size
-		byte[] header = new byte[5];
-		byte[] buffer = null;
-		byte[] finalFrame = null;
-		int dataSize;
+	}
+	
+	/**
+	 * This method returns a read STPLP Frame from the socket.<br>
+	 * Bytes are read into the Node's frame decoder, a frame is only returned once it has been
+	 * received in full. Partially received frames are kept until the next call.
+	 * @return The received STPLP Frame, or null if the socket timed out or failed
+	 */
+	public STPLPFrame readSocket() throws SocketTimeoutException{
+		STPLPFrame frame;
 		int bytesRead;
 		try {
-			//Read in header
-			input.read(header, 0, 5);
-			dataSize = (header[4] & 0xff);
-			buffer = new byte[dataSize + 1];
-			bytesRead = input.read(buffer, 0, dataSize + 1);
-			finalFrame = new byte[dataSize + 6];
-			for (int i = 0; i < bytesRead + 5; i++) {
-			if (i < 5) {
-				//Copy Header
-				finalFrame[i] = header[i];
-			} else if (i < bytesRead + 5) {
-				//Read in data
-				finalFrame[i] = buffer[i - 5];
+			while ((frame = pollFrame()) == null) {
+				bytesRead = fillDecoder();
+				if (bytesRead < 0) {
+					//Upstream closed the connection, any partial frame is lost
+					System.out.println("Node " + this.getNodeID() + ": Improper Frame Detected");
+					this.decoder.clear();
+					this.cutThroughRemaining = 0;
+					return null;
 				}
 			}
-			//System.out.println("Node " + this.getNodeID() + ": successfully read frame");
-			frame = new STPLPFrame(finalFrame);
-		} catch(EOFException eof) {
-			//Improper Frame Detected
-			System.out.println("Node " + this.getNodeID() + ": Improper Frame Detected");
-			frame = new STPLPFrame(header);
 		} catch (IOException e) {
-			//System.out.println("\tBad Frame");
-			return frame;
-		}		
+			//Timed out or bad frame
+			return null;
+		}
 		return frame;
 	}
 	
 	/**
-	 * Attempts to drain the input data stream of data.
+	 * Performs a single read from the transport into the Node's frame decoder.<br>
+	 * On a non-blocking transport this returns 0 when no bytes are available.
+	 * @return The number of bytes read, or -1 if the upstream Node closed the link.
+	 * @throws IOException If the read timed out or failed.
 	 */
-	public void drainInputSocket() {
-		DataInputStream input = null;
-		//System.out.println("Attempting to drain socket....");
-		try {
-			input = new DataInputStream(this.clientSocket.getInputStream());
-			System.out.println("Draining socket...");
-			while(input.skip(1) != 0);
-			System.out.println("Drained Socket...");
-			} catch (EOFException e) {
-			return;
-		} catch (IOException e) {
-			System.out.println("Could not drain socket");
-			return;
+	public int fillDecoder() throws IOException {
+		if (this.cutThroughRemaining > 0 && this.decoder.available() == 0) {
+			//The rest of a passing Frame goes straight to the downstream Node
+			int bytesCopied = this.transport.transfer(this.decoder.getBuffer(), this.cutThroughRemaining);
+			if (bytesCopied > 0) {
+				this.cutThroughRemaining -= bytesCopied;
+			}
+			return bytesCopied;
+		}
+		int bytesRead = this.transport.read(this.decoder.getBuffer(), this.decoder.getWriteOffset(), this.decoder.getWritableLength());
+		if (bytesRead > 0) {
+			this.decoder.advance(bytesRead);
 		}
+		return bytesRead;
+	}
+	
+	/**
+	 * Returns the next Frame already received in full, without reading from the transport.<br>
+	 * Frames selected by {@link #cutThrough(byte[], int)} are forwarded on the way and never returned.
+	 * The Frame comes from the Node's pool and should be given back with {@link #releaseFrame(STPLPFrame)}.
+	 * @return The next Frame, or null if more bytes are needed.
+	 */
+	public STPLPFrame pollFrame() {
+		int frameLength;
+		while (true) {
+			if (this.cutThroughRemaining > 0) {
+				if (!forwardBuffered()) {
+					return null;
+				}
+				continue;
+			}
+			frameLength = this.decoder.pendingHeader();
+			if (frameLength < 0) {
+				return null;
+			}
+			if (!cutThrough(this.decoder.getBuffer(), this.decoder.getPosition())) {
+				return this.decoder.poll(this.framePool);
+			}
+			this.cutThroughRemaining = frameLength;
+			this.cutThroughFrames++;
+		}
+	}
+	
+	/**
+	 * Decides from its header alone whether a Frame only passes through this Node. Such a Frame is
+	 * copied to the downstream Node as its bytes arrive, without being decoded or checked.<br>
+	 * The Access Control byte may be updated in place, the rest of the header must not change.
+	 * @param buffer The buffer holding the header.
+	 * @param offset The index of the Start Delimiter.
+	 * @return True to forward the Frame, false to decode it. Nodes forward nothing by default.
+	 */
+	protected boolean cutThrough(byte[] buffer, int offset) {
+		return false;
+	}
+	
+	/**
+	 * Writes the buffered bytes of a passing Frame to the downstream Node.
+	 * @return True once the whole Frame has been forwarded.
+	 */
+	private boolean forwardBuffered() {
+		int count = Math.min(this.cutThroughRemaining, this.decoder.available());
+		if (count > 0) {
+			try {
+				this.transport.write(this.decoder.getBuffer(), this.decoder.getPosition(), count);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.err.println("Error! Node: " + this.NodeID + " could not write to socket!");
+			}
+			this.decoder.skip(count);
+			this.cutThroughRemaining -= count;
+		}
+		return this.cutThroughRemaining == 0;
+	}
+	
+	/**
+	 * Returns the number of Frames this Node forwarded without decoding them.
+	 * @return The number of cut-through Frames.
+	 */
+	public long getCutThroughFrames() {
+		return this.cutThroughFrames;
+	}
+	
+	/**
+	 * Returns the Node's pool of reusable Frames.
+	 * @return The Frame pool.
+	 */
+	protected FramePool getFramePool() {
+		return this.framePool;
+	}
+	
+	/**
+	 * Gives a Frame back to the Node's pool once it is no longer referenced.
+	 * @param frame The Frame, shared and unpooled Frames are ignored.
+	 */
+	public void releaseFrame(STPLPFrame frame) {
+		this.framePool.release(frame);
+	}
+	
+	/**
+	 * Returns the number of bytes the Node skipped while resynchronizing to a frame boundary.
+	 * @return The number of discarded bytes.
+	 */
+	public long getDiscardedBytes() {
+		return this.decoder.getDiscardedBytes();
+	}
+	
+	/**
+	 * Returns the number of received Frames dropped because their Frame Check Sequence did not match.
+	 * @return The number of corrupt Frames.
+	 */
+	public long getCorruptFrames() {
+		return this.decoder.getCorruptFrames();
 	}
 	
 	/**
@@ -236,13 +407,10 @@ public class Node{
 	@Deprecated
 	public void writeToSocket(String message) {
 		//System.out.println(this.NodeName + ": Attempting to write to socket...");
-		Socket outputSocket = this.outputSockets.get(0);
-		PrintStream outputStream;
 		try {
-			//Create output stream
-			outputStream = new PrintStream(outputSocket.getOutputStream());
 			//Send message
-			outputStream.println(message);
+			byte[] line = (message + System.lineSeparator()).getBytes();
+			this.transport.write(line, 0, line.length);
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.err.println("Error! Node: " + this.NodeID + " could not write to socket!");
@@ -257,15 +425,11 @@ public class Node{
 	 * @return Returns 0 upon successful transmission
 	 */
 	public int writeToSocket(STPLPFrame frame) {
-		Socket outputSocket = this.outputSockets.get(0);
-		DataOutputStream outputStream;
 		try {
-			//Create output stream
-			outputStream = new DataOutputStream(outputSocket.getOutputStream());
 			//Send message
 			//System.out.println("Node " + this.NodeID + " Output Frame: ");
 			//System.out.println(frame.toString());
-			outputStream.write(frame.getFrame());
+			this.transport.write(frame.getFrame(), 0, frame.getFrameLength());
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.err.println("Error! Node: " + this.NodeID + " could not write to socket!");
@@ -279,29 +443,71 @@ public class Node{
 	 * @throws IOException 
 	 */
 	public void killServerConnection() throws IOException {
-		Socket outputSocket = this.outputSockets.get(0);
-		if(outputSocket.isClosed()) {
-			System.err.println(this.NodeID + ": Error! Could not close Socket: Socket is already closed...");
-		} else {
-			if(outputSocket.isConnected()) {
-				outputSocket.shutdownOutput();
-			}
-			outputSocket.close();
-		}
+		this.transport.closeOutput();
 	}
 	
 	/**
 	 * This method 'closes' the Node by closing all used resources
 	 */
 	public void closeNode() {
-		Socket outputSocket = this.outputSockets.get(0);
-		if(!outputSocket.isClosed()) {
-			try {
-				outputSocket.shutdownOutput();
-				this.inputSocket.close();
-			} catch (IOException e) {
-				System.err.println("Severe error, Node" + this.NodeID + " could not properly close sockets");
-			}
+		try {
+			this.transport.closeOutput();
+			this.transport.closeInput();
+		} catch (IOException e) {
+			System.err.println("Severe error, Node" + this.NodeID + " could not properly close sockets");
+		}
+	}
+	
+	/**
+	 * Sets the clock the Node reads the time from.
+	 * @param clock The time source, {@link Clock#SYSTEM} by default.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+	
+	/**
+	 * Returns the current time of the Node's clock.
+	 * @return The time in nanoseconds.
+	 */
+	protected long nanoTime() {
+		return this.clock.nanoTime();
+	}
+	
+	/**
+	 * Sets when the Node garbles, rejects, orphans or loses Frames. A seeded model makes a run reproducible.
+	 * @param faultModel The fault model, owned by this Node alone.
+	 */
+	public void setFaultModel(FaultModel faultModel) {
+		this.faultModel = faultModel;
+	}
+	
+	/**
+	 * Returns the fault model of the Node.
+	 * @return The fault model.
+	 */
+	protected FaultModel getFaultModel() {
+		return this.faultModel;
+	}
+	
+	/**
+	 * Returns the time out period of the Node.
+	 * @return The time out period in milliseconds.
+	 */
+	public int getTimeOutPeriod() {
+		return this.timeOutPeriod;
+	}
+	
+	/**
+	 * Changes the time out period of the Node, taking effect on the next read.
+	 * @param timeOutPeriod The time out period in milliseconds.
+	 */
+	public void setTimeOutPeriod(int timeOutPeriod) {
+		this.timeOutPeriod = timeOutPeriod;
+		try {
+			this.transport.setTimeOut(timeOutPeriod);
+		} catch (IOException e) {
+			System.err.println(this.NodeID + " Cannot change time out! " + e.getMessage());
 		}
 	}
 	
@@ -321,10 +527,8 @@ public class Node{
 		StringBuilder builder = new StringBuilder();
 		builder.append("Node [NodeName=");
 		builder.append(NodeID);
-		builder.append(", inputSocket=");
-		builder.append(inputSocket);
-		builder.append(", outputSockets=");
-		builder.append(outputSockets);
+		builder.append(", transport=");
+		builder.append(transport);
 		builder.append("]");
 		return builder.toString();
 	}
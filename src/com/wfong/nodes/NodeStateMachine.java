@@ -0,0 +1,31 @@
+package com.wfong.nodes;
+
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This interface exposes a Node's protocol as a state machine that is driven one event at a time.<br>
+ * The blocking run() loops of the Nodes are built on the same methods, so an engine that
+ * multiplexes many Nodes on a few threads executes exactly the same protocol.
+ * @author William Fong
+ *
+ */
+public interface NodeStateMachine {
+
+	/**
+	 * Called once the Node is connected to both of its neighbors.
+	 */
+	public void start();
+
+	/**
+	 * Handles a Frame received from the upstream neighbor. This must not block on the input.
+	 * @param frame The received Frame.
+	 * @return True once the Node has terminated.
+	 */
+	public boolean onFrame(STPLPFrame frame);
+
+	/**
+	 * Handles the expiry of the Node's time out period without any Frame arriving.
+	 * @return True once the Node has terminated.
+	 */
+	public boolean onTimeOut();
+}
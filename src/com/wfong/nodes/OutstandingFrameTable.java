@@ -0,0 +1,232 @@
+package com.wfong.nodes;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This class tracks the Frames a Node has sent and which have been neither ACK nor NAK yet,
+ * together with the time by which each Frame is expected back.<br>
+ * Frames are keyed by their Sequence Number in an open addressing table with linear probing, so
+ * matching a returning Frame is O(1) and does not allocate. Removal uses backward shifting, the
+ * table never holds tombstones.
+ * @author William Fong
+ *
+ */
+public class OutstandingFrameTable {
+	private static final int EMPTY = -1;
+	private int[] keys;
+	private STPLPFrame[] frames;
+	private long[] deadlines;
+	private int mask;
+	private int size;
+	//Number of data bytes in the outstanding Frames
+	private long outstandingBytes;
+
+	/**
+	 * Creates a table sized for 64 outstanding Frames, it grows as needed.
+	 */
+	public OutstandingFrameTable() {
+		this(64);
+	}
+
+	/**
+	 * Creates a table.
+	 * @param expectedFrames The number of outstanding Frames expected.
+	 */
+	public OutstandingFrameTable(int expectedFrames) {
+		allocate(Integer.highestOneBit(Math.max(expectedFrames, 4) * 2 - 1) << 1);
+	}
+
+	/**
+	 * Adds a Frame, replacing any Frame with the same Sequence Number.
+	 * @param frame The Frame that has been sent.
+	 * @param deadline The System.nanoTime() after which the Frame is considered lost.
+	 */
+	public void put(STPLPFrame frame, long deadline) {
+		if ((this.size + 1) * 2 > this.keys.length) {
+			resize(this.keys.length * 2);
+		}
+		int key = frame.getSequenceNumber();
+		int index = indexFor(key);
+		while (this.keys[index] != EMPTY) {
+			if (this.keys[index] == key) {
+				this.outstandingBytes += frame.getDataSize() - this.frames[index].getDataSize();
+				this.frames[index] = frame;
+				this.deadlines[index] = deadline;
+				return;
+			}
+			index = (index + 1) & this.mask;
+		}
+		this.keys[index] = key;
+		this.frames[index] = frame;
+		this.deadlines[index] = deadline;
+		this.size++;
+		this.outstandingBytes += frame.getDataSize();
+	}
+
+	/**
+	 * Returns the outstanding Frame with a Sequence Number.
+	 * @param sequenceNumber The Sequence Number.
+	 * @return The Frame, or null if it is not outstanding.
+	 */
+	public STPLPFrame get(int sequenceNumber) {
+		int index = find(sequenceNumber);
+		return index < 0 ? null : this.frames[index];
+	}
+
+	/**
+	 * Removes the outstanding Frame with a Sequence Number.
+	 * @param sequenceNumber The Sequence Number of the returning Frame.
+	 * @return The Frame that was sent, or null if it was not outstanding.
+	 */
+	public STPLPFrame remove(int sequenceNumber) {
+		int index = find(sequenceNumber);
+		if (index < 0) {
+			return null;
+		}
+		STPLPFrame frame = this.frames[index];
+		deleteAt(index);
+		return frame;
+	}
+
+	/**
+	 * Moves every outstanding Frame to a collection and empties the table.
+	 * @param destination The collection receiving the Frames.
+	 */
+	public void drainTo(Collection<STPLPFrame> destination) {
+		if (this.size == 0) {
+			return;
+		}
+		for (int i = 0; i < this.keys.length; i++) {
+			if (this.keys[i] != EMPTY) {
+				destination.add(this.frames[i]);
+				this.keys[i] = EMPTY;
+				this.frames[i] = null;
+			}
+		}
+		this.size = 0;
+		this.outstandingBytes = 0;
+	}
+
+	/**
+	 * Moves every Frame whose deadline has passed to a collection.
+	 * @param now The current System.nanoTime().
+	 * @param destination The collection receiving the lost Frames.
+	 * @return The number of Frames moved.
+	 */
+	public int drainExpired(long now, Collection<STPLPFrame> destination) {
+		int expired = 0;
+		int index = 0;
+		while (index < this.keys.length && this.size > 0) {
+			if (this.keys[index] != EMPTY && this.deadlines[index] - now <= 0) {
+				destination.add(this.frames[index]);
+				deleteAt(index);
+				expired++;
+				//Backward shifting may have moved another entry into this slot
+				continue;
+			}
+			index++;
+		}
+		return expired;
+	}
+
+	/**
+	 * Returns the number of outstanding Frames.
+	 * @return The number of Frames.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of data bytes in the outstanding Frames.
+	 * @return The outstanding bytes.
+	 */
+	public long getOutstandingBytes() {
+		return this.outstandingBytes;
+	}
+
+	/**
+	 * Returns true if no Frame is outstanding.
+	 * @return True if the table is empty.
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Returns the slot holding a Sequence Number.
+	 * @return The slot index, or -1 if the Sequence Number is not in the table.
+	 */
+	private int find(int key) {
+		int index = indexFor(key);
+		while (this.keys[index] != EMPTY) {
+			if (this.keys[index] == key) {
+				return index;
+			}
+			index = (index + 1) & this.mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Empties a slot and shifts back the entries of the probe sequence behind it.
+	 */
+	private void deleteAt(int index) {
+		this.outstandingBytes -= this.frames[index].getDataSize();
+		int hole = index;
+		int next = (hole + 1) & this.mask;
+		while (this.keys[next] != EMPTY) {
+			int home = indexFor(this.keys[next]);
+			//Move the entry into the hole unless its home lies cyclically in (hole, next]
+			if (((next - home) & this.mask) >= ((next - hole) & this.mask)) {
+				this.keys[hole] = this.keys[next];
+				this.frames[hole] = this.frames[next];
+				this.deadlines[hole] = this.deadlines[next];
+				hole = next;
+			}
+			next = (next + 1) & this.mask;
+		}
+		this.keys[hole] = EMPTY;
+		this.frames[hole] = null;
+		this.size--;
+	}
+
+	/**
+	 * Returns the home slot of a Sequence Number.
+	 */
+	private int indexFor(int key) {
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & this.mask;
+	}
+
+	/**
+	 * Grows the table and re-inserts every entry.
+	 */
+	private void resize(int capacity) {
+		int[] oldKeys = this.keys;
+		STPLPFrame[] oldFrames = this.frames;
+		long[] oldDeadlines = this.deadlines;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				put(oldFrames[i], oldDeadlines[i]);
+			}
+		}
+	}
+
+	/**
+	 * Allocates empty arrays of a power of two capacity.
+	 */
+	private void allocate(int capacity) {
+		this.keys = new int[capacity];
+		Arrays.fill(this.keys, EMPTY);
+		this.frames = new STPLPFrame[capacity];
+		this.deadlines = new long[capacity];
+		this.mask = capacity - 1;
+		this.size = 0;
+		this.outstandingBytes = 0;
+	}
+}
@@ -0,0 +1,219 @@
+package com.wfong.nodes;
+
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This class holds the Frames a Node is waiting to transmit, with one queue per priority level.<br>
+ * Frames are taken from the highest priority queue first, and in order within a priority.<br>
+ * Each queue is a fixed-capacity circular array allocated up front, so queuing and retransmitting
+ * never allocate and the queue can never hold more than its capacity.
+ * @author William Fong
+ *
+ */
+public class PriorityFrameQueue {
+	private FrameRing[] queues;
+	private int capacity;
+	private int size;
+	private long queuedBytes;
+
+	/**
+	 * Creates an empty queue for every priority level.
+	 * @param capacity The maximum number of Frames queued at once.
+	 */
+	public PriorityFrameQueue(int capacity) {
+		this.queues = new FrameRing[STPLPFrame.MAX_PRIORITY + 1];
+		for (int i = 0; i < this.queues.length; i++) {
+			this.queues[i] = new FrameRing(capacity);
+		}
+		this.capacity = capacity;
+		this.size = 0;
+		this.queuedBytes = 0;
+	}
+
+	/**
+	 * Adds a Frame behind every other Frame of its priority.
+	 * @param frame The Frame to transmit.
+	 * @throws IllegalStateException If the queue is full.
+	 */
+	public void add(STPLPFrame frame) {
+		checkCapacity();
+		this.queues[frame.getFramePriority()].addLast(frame);
+		this.size++;
+		this.queuedBytes += frame.getDataSize();
+	}
+
+	/**
+	 * Adds a Frame in front of every other Frame of its priority, used for retransmissions.
+	 * @param frame The Frame to transmit again.
+	 * @throws IllegalStateException If the queue is full.
+	 */
+	public void addFirst(STPLPFrame frame) {
+		checkCapacity();
+		this.queues[frame.getFramePriority()].addFirst(frame);
+		this.size++;
+		this.queuedBytes += frame.getDataSize();
+	}
+
+	/**
+	 * Removes the next Frame that may be sent with a token of the given priority.
+	 * @param minimumPriority The token's priority.
+	 * @return The highest priority Frame at or above minimumPriority, or null if there is none.
+	 */
+	public STPLPFrame poll(int minimumPriority) {
+		for (int priority = STPLPFrame.MAX_PRIORITY; priority >= minimumPriority; priority--) {
+			STPLPFrame frame = this.queues[priority].pollFirst();
+			if (frame != null) {
+				this.size--;
+				this.queuedBytes -= frame.getDataSize();
+				return frame;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the next Frame that may be sent with a token of the given priority to a destination
+	 * with receive credits left. Frames to other destinations keep their place in the queue.
+	 * @param minimumPriority The token's priority.
+	 * @param credits The receive credits of each destination, indexed by address (0-255).
+	 * @return The highest priority such Frame, or null if there is none.
+	 */
+	public STPLPFrame poll(int minimumPriority, byte[] credits) {
+		for (int priority = STPLPFrame.MAX_PRIORITY; priority >= minimumPriority; priority--) {
+			STPLPFrame frame = this.queues[priority].pollFirst(credits);
+			if (frame != null) {
+				this.size--;
+				this.queuedBytes -= frame.getDataSize();
+				return frame;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the priority of the most urgent queued Frame.
+	 * @return The highest priority with a queued Frame, or -1 if the queue is empty.
+	 */
+	public int highestPriority() {
+		if (this.size == 0) {
+			return -1;
+		}
+		for (int priority = STPLPFrame.MAX_PRIORITY; priority > 0; priority--) {
+			if (!this.queues[priority].isEmpty()) {
+				return priority;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the number of queued Frames.
+	 * @return The number of Frames.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the maximum number of Frames the queue holds.
+	 * @return The capacity.
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Returns the number of data bytes in the queued Frames.
+	 * @return The queued bytes.
+	 */
+	public long getQueuedBytes() {
+		return this.queuedBytes;
+	}
+
+	/**
+	 * Returns true if no Frame is queued.
+	 * @return True if the queue is empty.
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Refuses a Frame once the queue holds its capacity.
+	 */
+	private void checkCapacity() {
+		if (this.size >= this.capacity) {
+			throw new IllegalStateException("Transmit queue is full (" + this.capacity + " Frames)");
+		}
+	}
+
+	/**
+	 * A fixed-capacity circular array of Frames, usable from both ends.
+	 */
+	private static class FrameRing {
+		private STPLPFrame[] frames;
+		private int mask;
+		//Index of the first Frame
+		private int head;
+		private int size;
+
+		/**
+		 * Creates an empty ring able to hold at least capacity Frames.
+		 */
+		FrameRing(int capacity) {
+			int length = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+			this.frames = new STPLPFrame[length];
+			this.mask = length - 1;
+			this.head = 0;
+			this.size = 0;
+		}
+
+		void addLast(STPLPFrame frame) {
+			this.frames[(this.head + this.size) & this.mask] = frame;
+			this.size++;
+		}
+
+		void addFirst(STPLPFrame frame) {
+			this.head = (this.head - 1) & this.mask;
+			this.frames[this.head] = frame;
+			this.size++;
+		}
+
+		STPLPFrame pollFirst() {
+			if (this.size == 0) {
+				return null;
+			}
+			STPLPFrame frame = this.frames[this.head];
+			this.frames[this.head] = null;
+			this.head = (this.head + 1) & this.mask;
+			this.size--;
+			return frame;
+		}
+
+		/**
+		 * Removes the first Frame whose destination has credits left, closing the gap it leaves.
+		 */
+		STPLPFrame pollFirst(byte[] credits) {
+			for (int i = 0; i < this.size; i++) {
+				int index = (this.head + i) & this.mask;
+				STPLPFrame frame = this.frames[index];
+				if (credits[frame.getDestinationAddress()] == 0) {
+					continue;
+				}
+				//Shift the skipped Frames up by one so they keep their order
+				for (int j = i; j > 0; j--) {
+					this.frames[(this.head + j) & this.mask] = this.frames[(this.head + j - 1) & this.mask];
+				}
+				this.frames[this.head] = null;
+				this.head = (this.head + 1) & this.mask;
+				this.size--;
+				return frame;
+			}
+			return null;
+		}
+
+		boolean isEmpty() {
+			return this.size == 0;
+		}
+	}
+}
@@ -1,37 +1,102 @@
 package com.wfong.nodes;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.SocketTimeoutException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
+import com.wfong.fault.Fault;
+import com.wfong.io.AsyncFrameWriter;
+import com.wfong.io.Durability;
+import com.wfong.io.FrameSink;
+import com.wfong.io.FrameSource;
+import com.wfong.io.MappedFrameSource;
 import com.wfong.token.STPLPFrame;
+import com.wfong.transport.TcpTransport;
+import com.wfong.transport.Transport;
 
 /**
  * This class relays data between client and server nodes (Acting as both)
  * @author William Fong
  *
  */
-public class RelayNode extends Node implements Runnable {
+public class RelayNode extends Node implements Runnable, NodeStateMachine {
 	private InetAddress myAddress;
 	private InetAddress serverAddress;
 	private int port;
-	private BufferedReader inputFile;
-	private PrintWriter outputFile;
+	private FrameSource inputFile;
+	private FrameSink outputFile;
 	private int THT;
-	private List<STPLPFrame> frameBuffer;
-	private List<STPLPFrame> waitingFrames;
+	private PriorityFrameQueue transmitQueue;
+	//Frames found overdue at a token arrival, before they are queued again
+	private List<STPLPFrame> expiredFrames;
+	private boolean inputExhausted;
+	private OutstandingFrameTable waitingFrames;
+	private int nextSequenceNumber;
 	private boolean hasSentComplete;
+	//Sliding windows of the Sequence Numbers accepted from each source
+	private SequenceWindow[] receivedFrames;
+	//Arrival time of the previous token and the smoothed token rotation time (ns)
+	private long lastTokenArrival;
+	private long smoothedRotation;
+	private long lastRotation;
+	//Adjusts the THT at runtime, null while the THT is fixed
+	private ThtController thtController;
+	private ThtMode thtMode;
+	//Where the time spent holding the token went (ns)
+	private int holds;
+	private long holdNanos;
+	private long readNanos;
+	private long encodeNanos;
+	private long writeNanos;
+	private int framesSent;
+	private long bytesSent;
+	private int retransmissions;
+	private int duplicatesDiscarded;
+	private int deliveredFrames;
+	private long deliveredBytes;
+	//True to release the token right behind the last Frame (IEEE 802.5 Early Token Release)
+	private boolean earlyTokenRelease;
+	//True to forward Frames passing through as their bytes arrive, without decoding them
+	private boolean cutThrough;
+	//Set while the token is held waiting for this Node's Frames to come back
+	private boolean holdingToken;
+	private int unreturnedFrames;
+	//Priority and reservation level of the token last received
+	private int tokenPriority;
+	private int tokenReservation;
+	//Stamp the Monitor gave the token last received, kept on every token this Node passes on
+	private int tokenStamp;
+	//Stack of token priorities this Node raised: the priority it found and the priority it set
+	private int[] stackedPriorities;
+	private int[] raisedPriorities;
+	private int stackDepth;
+	//Number of Frames read ahead of transmission so that urgent Frames can be found
+	public static final int READ_AHEAD = 32;
+	//Default number of Frames a Node may have outstanding on the ring
+	public static final int DEFAULT_SEND_WINDOW = 64;
+	//Default number of data bytes a Node may hold, queued or outstanding
+	public static final long DEFAULT_BYTE_BUDGET = 256 * 1024;
+	//Maximum number of Frames outstanding at once
+	private int sendWindow;
+	//Maximum number of data bytes queued and outstanding, the input file is not read beyond it
+	private long byteBudget;
+	//Number of times the Node passed the token early because its send window was full
+	private int windowStalls;
+	//True to accept Frames as long as the output has room and to advertise that room on the token
+	private boolean creditFlowControl;
+	//Receive credits of every Node as last carried by the token, 0xff when unknown
+	private byte[] credits;
+	//Number of credit entries carried by the token
+	private int creditCount;
+	//Number of times the Node kept Frames back because their destinations had no credits
+	private int creditWaits;
+	//Returned by processFrame while the Node should stay in the Listen state
+	private static final int LISTEN = -1;
 	/**
 	 * This constructor allows for specification of the Node's Name as well as the receiving and sending port numbers
 	 * @param NodeName The Node's Name
@@ -57,29 +122,138 @@ public class RelayNode extends Node implements Runnable {
 	 * @param timeOutPeriod The time out period for the node (is not used)<br>
 	 */
 	public RelayNode(String filePattern, int NodeName, int THT, int timeOutPeriod) {
-		super(NodeName, timeOutPeriod);
+		this(filePattern, NodeName, THT, timeOutPeriod, new TcpTransport());
+	}
+	
+	/**
+	 * This creates a node with a specified Node ID, THT, timeout period, input file and transport.
+	 * @param filePattern The file pattern associated with the node.<br>
+	 * It will access "input-file-n" where n is the Node ID.
+	 * @param NodeName The Node ID number to be associated with the node.
+	 * @param THT The THT for the Node.
+	 * @param timeOutPeriod The time out period for the node (is not used)<br>
+	 * @param transport The transport linking the node to its neighbors.
+	 */
+	public RelayNode(String filePattern, int NodeName, int THT, int timeOutPeriod, Transport transport) {
+		this(filePattern, NodeName, THT, timeOutPeriod, transport, Durability.ON_SHUTDOWN);
+	}
+	
+	/**
+	 * This creates a node with a specified Node ID, THT, timeout period, input file, transport and
+	 * output durability.
+	 * @param filePattern The file pattern associated with the node.<br>
+	 * It will access "input-file-n" where n is the Node ID.
+	 * @param NodeName The Node ID number to be associated with the node.
+	 * @param THT The THT for the Node.
+	 * @param timeOutPeriod The time out period for the node (is not used)<br>
+	 * @param transport The transport linking the node to its neighbors.
+	 * @param durability When the node's output file is forced to disk.
+	 */
+	public RelayNode(String filePattern, int NodeName, int THT, int timeOutPeriod, Transport transport, Durability durability) {
+		this(filePattern, "output-file-", NodeName, THT, timeOutPeriod, transport, durability);
+	}
+	
+	/**
+	 * This creates a node with a specified Node ID, THT, timeout period, input and output files,
+	 * transport and output durability.
+	 * @param filePattern The input file pattern, the node reads "filePattern + n" where n is the Node ID.
+	 * @param outputPattern The output file pattern, the node writes "outputPattern + n".
+	 * @param NodeName The Node ID number to be associated with the node.
+	 * @param THT The THT for the Node.
+	 * @param timeOutPeriod The time out period for the node (is not used)<br>
+	 * @param transport The transport linking the node to its neighbors.
+	 * @param durability When the node's output file is forced to disk.
+	 */
+	public RelayNode(String filePattern, String outputPattern, int NodeName, int THT, int timeOutPeriod, Transport transport, Durability durability) {
+		this(NodeName, THT, timeOutPeriod, transport, openInputFile(filePattern + NodeName),
+				openOutputFile(outputPattern + NodeName, durability, "Writer-" + NodeName));
+	}
+	
+	/**
+	 * This creates a node with a specified Node ID, THT, timeout period, transport and the source
+	 * and sink of its Frames.
+	 * @param NodeName The Node ID number to be associated with the node.
+	 * @param THT The THT for the Node.
+	 * @param timeOutPeriod The time out period for the node (is not used)<br>
+	 * @param transport The transport linking the node to its neighbors.
+	 * @param inputFile Where the node reads the Frames it transmits from, null if it has nothing to send.
+	 * @param outputFile Where the node writes the Frames delivered to it.
+	 */
+	public RelayNode(int NodeName, int THT, int timeOutPeriod, Transport transport, FrameSource inputFile, FrameSink outputFile) {
+		super(NodeName, timeOutPeriod, transport);
 		this.myAddress = getLocalAddress();
 		this.serverAddress = getLocalAddress();
-		this.port = this.addServerSocket(myAddress);
-		this.frameBuffer = new ArrayList<STPLPFrame>();
-		this.waitingFrames = new ArrayList<STPLPFrame> ();
+		this.port = this.openInput();
+		this.sendWindow = DEFAULT_SEND_WINDOW;
+		this.byteBudget = DEFAULT_BYTE_BUDGET;
+		this.windowStalls = 0;
+		this.creditFlowControl = false;
+		this.credits = new byte[256];
+		Arrays.fill(this.credits, (byte) 0xff);
+		this.creditCount = 0;
+		this.creditWaits = 0;
+		this.transmitQueue = new PriorityFrameQueue(READ_AHEAD + this.sendWindow);
+		this.expiredFrames = new ArrayList<STPLPFrame>();
+		this.inputExhausted = false;
+		this.waitingFrames = new OutstandingFrameTable(this.sendWindow);
+		this.nextSequenceNumber = 0;
 		this.hasSentComplete = false;
-		//Attempt to open output file
-		try {
-			outputFile = new PrintWriter("output-file-" + this.getNodeID(), "UTF-8");
-		} catch (FileNotFoundException e1) {
-			System.err.println("Could not open output file...");
-		} catch (UnsupportedEncodingException e1) {
-			System.err.println("Coult not use specified encoding scheme...");
-		}
+		this.receivedFrames = new SequenceWindow[256];
+		this.lastTokenArrival = 0;
+		this.smoothedRotation = 0;
+		this.lastRotation = 0;
+		this.thtController = null;
+		this.thtMode = ThtMode.BYTES;
+		this.holds = 0;
+		this.holdNanos = 0;
+		this.readNanos = 0;
+		this.encodeNanos = 0;
+		this.writeNanos = 0;
+		this.framesSent = 0;
+		this.bytesSent = 0;
+		this.retransmissions = 0;
+		this.duplicatesDiscarded = 0;
+		this.deliveredFrames = 0;
+		this.deliveredBytes = 0;
+		this.earlyTokenRelease = true;
+		this.cutThrough = true;
+		this.holdingToken = false;
+		this.unreturnedFrames = 0;
+		this.tokenPriority = 0;
+		this.tokenReservation = 0;
+		this.tokenStamp = 0;
+		this.stackedPriorities = new int[STPLPFrame.MAX_PRIORITY + 1];
+		this.raisedPriorities = new int[STPLPFrame.MAX_PRIORITY + 1];
+		this.stackDepth = 0;
+		this.outputFile = outputFile;
 		this.THT = THT;
-		Path path = Paths.get(filePattern + NodeName);
-		//Attempt to open input file
+		this.inputFile = inputFile;
+	}
+	
+	/**
+	 * Attempts to open an input file.
+	 * @return The file's Frames, or null if the file does not exist.
+	 */
+	private static FrameSource openInputFile(String fileName) {
+		Path path = Paths.get(fileName);
 		try {
-			this.inputFile = Files.newBufferedReader(path, StandardCharsets.US_ASCII);
+			return new MappedFrameSource(path);
 		} catch (IOException e) {
 			//File does not exist
-			this.inputFile = null;
+			return null;
+		}
+	}
+	
+	/**
+	 * Attempts to open an output file.
+	 * @return The file's writer, or null if the file could not be opened.
+	 */
+	private static FrameSink openOutputFile(String fileName, Durability durability, String writerName) {
+		try {
+			return new AsyncFrameWriter(fileName, durability, writerName);
+		} catch (IOException e1) {
+			System.err.println("Could not open output file...");
+			return null;
 		}
 	}
 	
@@ -89,6 +263,7 @@ public class RelayNode extends Node implements Runnable {
 	 */
 	public int Listen() {
 		STPLPFrame inputFrame;
+		int state;
 		while(true) {
 			//Read from input socket a new frame
 			try {
@@ -102,132 +277,530 @@ public class RelayNode extends Node implements Runnable {
 				//Bad frame
 				continue;
 			}
-			//Check to see if frame is healthy
-			//This should pass any garbled frames however corruption of
-			//data size caused this node to be unable to differentiate
-			//when a new frame started
-			if (!MonitorNode.isFrameHealthy(inputFrame)) {
+			state = processFrame(inputFrame);
+			releaseFrame(inputFrame);
+			if (state != LISTEN) {
+				return state;
+			}
+		}
+	}
+	
+	/**
+	 * This method handles a single Frame received in the Listen state.<br>
+	 * The received Frame is never kept, the caller releases it afterwards.
+	 * @param inputFrame The received Frame.
+	 * @return Returns LISTEN to keep listening, 0 upon reception of a Token Frame, or 1 upon Kill Signal Reception
+	 */
+	private int processFrame(STPLPFrame inputFrame) {
+		//Check to see if frame is healthy
+		//This should pass any garbled frames however corruption of
+		//data size caused this node to be unable to differentiate
+		//when a new frame started
+		if (!MonitorNode.isFrameHealthy(inputFrame)) {
+			writeToSocket(inputFrame);
+			return LISTEN;
+		}
+		//Check to see if Frame is Kill Signal
+		if (inputFrame.getFrameStatus() == 4) {
+			//Kill Network Signal has been received
+			writeToSocket(inputFrame); //Pass Kill Signal
+			return 1;
+		}
+		
+		//Check to see if Frame is Completion Signal
+		if (inputFrame.getFrameStatus() == 5) {
+			writeToSocket(inputFrame);
+			return LISTEN;
+		}
+		
+		//If Frame was intended for this Node
+		if (inputFrame.getDestinationAddress() == this.getNodeID() && inputFrame.getFrameStatus() == 0) {
+			//Frame has reached its destination
+			SequenceWindow window = receivedWindow(inputFrame.getSourceAddress());
+			if (window.isDuplicate(inputFrame.getSequenceNumber())) {
+				//Retransmission of a Frame whose ACK was lost, ACK it again without writing it out
+				this.duplicatesDiscarded++;
+				inputFrame.setFrameStatus((byte) 2);
 				writeToSocket(inputFrame);
-				continue;
+				return LISTEN;
 			}
-			//Check to see if Frame is Kill Signal
-			if (inputFrame.getFrameStatus() == 4) {
-				//Kill Network Signal has been received
-				writeToSocket(inputFrame); //Pass Kill Signal
-				return 1;
+			if (this.creditFlowControl) {
+				//Only refuse a Frame the output has no room for
+				inputFrame.setFrameStatus((byte) (this.outputFile.getRemainingCapacity() > 0 ? 2 : 3));
+			} else {
+				inputFrame.setFrameStatus((byte) (getFaultModel().inject(Fault.REJECT) ? 3 : 2));
 			}
-			
-			//Check to see if Frame is Completion Signal
-			if (inputFrame.getFrameStatus() == 5) {
+			//Determine if frame needs to be rejected or received
+			if(inputFrame.getFrameStatus() == 3) {
+				//Reject Frame
 				writeToSocket(inputFrame);
-				continue;
+				return LISTEN;
+			} else if (inputFrame.getFrameStatus() == 2) {
+				window.markReceived(inputFrame.getSequenceNumber());
+				this.deliveredFrames++;
+				this.deliveredBytes += inputFrame.getDataSize();
+				//Hand the Frame to the writer thread and keep forwarding
+				this.outputFile.deliver(inputFrame);
+				writeToSocket(inputFrame); //Pass Frame to return back to Sender
+				return LISTEN;
 			}
-			
-			//If Frame was intended for this Node
-			if (inputFrame.getDestinationAddress() == this.getNodeID() && inputFrame.getFrameStatus() == 0) {
-				//Frame has reached its destination
-				inputFrame.generateFrameStatus();
-				//Determine if frame needs to be rejected or received
-				if(inputFrame.getFrameStatus() == 3) {
-					//Reject Frame
-					writeToSocket(inputFrame);
-					continue;
-				} else if (inputFrame.getFrameStatus() == 2) {
-					this.outputFile.println(inputFrame.getSourceAddress() + 
-							"," + inputFrame.getDestinationAddress() + 
-							"," + inputFrame.getDataSize() + 
-							"," + inputFrame.dataToString());
-					writeToSocket(inputFrame); //Pass Frame to return back to Sender
-				}
+		}
+		//Check to see if Frame was rejected
+		STPLPFrame sentFrame = null;
+		if (inputFrame.getSourceAddress() == this.getNodeID()) {
+			sentFrame = this.waitingFrames.remove(inputFrame.getSequenceNumber()); //Frame has not been lost in the network
+			if (sentFrame != null) {
+				frameReturned(inputFrame);
 			}
-			//Check to see if Frame was rejected
-			this.waitingFrames.remove(inputFrame); //Frame has not been lost in the network
-			if (inputFrame.getSourceAddress() == this.getNodeID()) {
-				if (inputFrame.getFrameStatus() == 3) {
-					//Frame was rejected
-					inputFrame.setFrameStatus((byte) 0);
-					inputFrame.zeroMonitorBit();
-					this.frameBuffer.add(inputFrame);
-					continue;
+		}
+		if (inputFrame.getSourceAddress() == this.getNodeID()) {
+			if (inputFrame.getFrameStatus() == 3) {
+				//Frame was rejected, queue the copy that was sent
+				//A Frame no longer outstanding timed out and has already been queued again
+				if (sentFrame != null) {
+					requeue(sentFrame);
 				}
-				//Check to see if Frame was accepted
-				if (inputFrame.getFrameStatus() == 2) {
-					Random rand = new Random();
-						if (rand.nextInt(100) < 2) {
-							writeToSocket(inputFrame); //Create Orphan Frame
-						}
-					continue;
+				return LISTEN;
+			}
+		}
+		releaseFrame(sentFrame);
+		if (inputFrame.getSourceAddress() == this.getNodeID()) {
+			//Check to see if Frame was accepted
+			if (inputFrame.getFrameStatus() == 2) {
+				if (getFaultModel().inject(Fault.ORPHAN)) {
+					writeToSocket(inputFrame); //Create Orphan Frame
 				}
+				return LISTEN;
+			}
 
-			}		
-			//Check if Frame is Token
-			if(inputFrame.isToken()) {
-				return 0; //Go to Transmit State
+		}		
+		//Check if Frame is Token
+		if(inputFrame.isToken()) {
+			//A token reaching a Node that holds one was regenerated by the monitor after a Frame was lost
+			this.holdingToken = false;
+			this.tokenPriority = inputFrame.getFramePriority();
+			this.tokenReservation = inputFrame.getReservationLevel();
+			this.tokenStamp = inputFrame.getSequenceNumber();
+			if (this.creditFlowControl) {
+				readCredits(inputFrame);
 			}
-			writeToSocket(inputFrame);
+			return 0; //Go to Transmit State
 		}
+		//Reserve the token for this Node's most urgent Frame as the Frame passes
+		if (this.transmitQueue.highestPriority() > inputFrame.getReservationLevel()) {
+			inputFrame.setReservationLevel(this.transmitQueue.highestPriority());
+		}
+		writeToSocket(inputFrame);
+		return LISTEN;
 	}
 	
 	/**
 	 * This method represents the transmission state of the Node. This is only active
-	 * while the Node has a the token and has not gone beyond the total THT.
+	 * while the Node has a the token and has not gone beyond the total THT.<br>
+	 * The THT is counted in payload bytes, or in microseconds of wall-clock time in {@link ThtMode#TIME}.<br>
+	 * Only Frames with at least the token's priority are sent. A Node that cannot use the token
+	 * reserves it for its most urgent Frame and passes it on.
 	 * @return Returns 0 when THT has been depleted, or 1 when there is no more data to transmit
 	 */
 	public int Transmit(){
 		int currentTHT = 0;
 		STPLPFrame currentFrame;
-		String buffer = null;
+		long deadline = nanoTime() + getRetransmitTimeOut();
+		this.unreturnedFrames = 0;
+		//The holding time starts with the token's arrival
+		long holdStart = nanoTime();
+		readAhead();
+		long now = nanoTime();
+		this.readNanos += now - holdStart;
+		if (this.thtController != null) {
+			//Rotations spanning a lost token recovery say nothing about the load
+			long rotation = this.lastRotation < this.getTimeOutPeriod() * 1000000L ? this.lastRotation : 0;
+			long backlog = getBacklog();
+			if (this.thtMode == ThtMode.TIME) {
+				//Convert the backlog to the time it took to send that many bytes so far
+				backlog = this.bytesSent == 0 ? backlog : backlog * this.holdNanos / this.bytesSent / 1000;
+			}
+			this.THT = this.thtController.update(rotation, backlog);
+		}
+		if (this.inputExhausted && this.transmitQueue.isEmpty()) {
+			//Node has successfully transmitted all of its OWN data
+			if (this.hasSentComplete == false && this.waitingFrames.isEmpty()) {
+				//Notify monitor of completion
+				writeToSocket(STPLPFrame.generateCompletedSig((byte) this.getNodeID()));
+				this.hasSentComplete = true;
+			}
+		}
+		//Forget priorities this Node raised if the token no longer carries them (the monitor replaced it)
+		while (this.stackDepth > 0 && this.raisedPriorities[this.stackDepth - 1] > this.tokenPriority) {
+			this.stackDepth--;
+		}
+		int highestPriority = this.transmitQueue.highestPriority();
+		if (highestPriority < this.tokenPriority) {
+			if (this.stackDepth > 0 && this.raisedPriorities[this.stackDepth - 1] == this.tokenPriority) {
+				//This Node raised the token's priority, lower it once no Node needs it anymore
+				writeToken(lowerToken(Math.max(this.tokenReservation, highestPriority)));
+			} else {
+				//Cannot use the token, reserve it and pass it on
+				writeToken(STPLPFrame.generateToken(this.tokenPriority, Math.max(this.tokenReservation, highestPriority)));
+			}
+			return this.inputExhausted && this.transmitQueue.isEmpty() ? 1 : 0;
+		}
+		long holdBudget = this.THT * 1000L;
+		long writeStart;
+		long readStart;
+		now = nanoTime();
 		//While the THT has not been surpassed
-		while (currentTHT < this.THT) {
-			try {
-				//Retransmit any frames that have failed to reach their destinations
-				if (!this.frameBuffer.isEmpty()){
-					//Frames in buffer for retransmission
-					currentFrame = this.frameBuffer.remove(0);
-					currentTHT += currentFrame.getDataSize();
-					writeToSocket(currentFrame.garbleFrame());
-					this.waitingFrames.add(currentFrame);
-					continue;
-				}
-				//If no frames need retransmission, resume reading the input file
-				if (this.frameBuffer.isEmpty()) {
-					buffer = this.inputFile.readLine();
-					//Check see if at EOF
-					if (buffer == null) {
-						//Node has successfully transmitted all of its OWN data
-						if (this.hasSentComplete == false && this.waitingFrames.isEmpty()) {
-							//Notify monitor of completion
-							writeToSocket(STPLPFrame.generateCompletedSig((byte) this.getNodeID()));
-							this.hasSentComplete = true;
-						}
-						//No longer needs to transmit
-						writeToSocket(STPLPFrame.generateToken());
-						return 1;
-					}
-					//Transmit the next line in input file
-					currentFrame = new STPLPFrame(buffer, (byte) this.getNodeID());
-					currentTHT += currentFrame.getDataSize();
-					writeToSocket(currentFrame.garbleFrame());
-					this.waitingFrames.add(currentFrame);
-					continue;
+		while (this.thtMode == ThtMode.TIME ? now - holdStart < holdBudget : currentTHT < this.THT) {
+			if (this.waitingFrames.size() >= this.sendWindow) {
+				//Wait for the destinations to catch up rather than piling up more Frames
+				this.windowStalls++;
+				endHold(holdStart);
+				releaseToken();
+				return 0;
+			}
+			currentFrame = this.creditFlowControl ? this.transmitQueue.poll(this.tokenPriority, this.credits) :
+					this.transmitQueue.poll(this.tokenPriority);
+			if (currentFrame == null) {
+				//No more data that may be sent with this token
+				if (this.transmitQueue.highestPriority() >= this.tokenPriority) {
+					//Every remaining Frame waits for its destination to free up
+					this.creditWaits++;
 				}
-			} catch (IOException e) {
-				//Either no data file or no data to transmit
-				System.out.println("No data to transmit");
-				writeToSocket(STPLPFrame.generateCompletedSig((byte) this.getNodeID()));
-				writeToSocket(STPLPFrame.generateToken()); //Pass the Token
-				return 1;
+				endHold(holdStart);
+				releaseToken();
+				return this.inputExhausted && this.transmitQueue.isEmpty() ? 1 : 0;
+			}
+			if (this.creditFlowControl) {
+				//Use up the credit, so the Nodes downstream see what is left of it
+				this.credits[currentFrame.getDestinationAddress()]--;
 			}
+			STPLPFrame wireFrame = currentFrame;
+			if (getFaultModel().inject(Fault.GARBLE)) {
+				//Lose one of the first bytes on the way out
+				wireFrame = currentFrame.garbleFrame(getFaultModel().nextInt(5), getFramePool().acquire());
+			}
+			this.waitingFrames.put(currentFrame, deadline);
+			this.unreturnedFrames++;
+			writeStart = nanoTime();
+			this.encodeNanos += writeStart - now;
+			writeToSocket(wireFrame);
+			if (wireFrame != currentFrame) {
+				releaseFrame(wireFrame);
+			}
+			readStart = nanoTime();
+			this.writeNanos += readStart - writeStart;
+			currentTHT += currentFrame.getDataSize();
+			this.framesSent++;
+			this.bytesSent += currentFrame.getDataSize();
+			readAhead();
+			now = nanoTime();
+			this.readNanos += now - readStart;
 		}
-		Random rand = new Random();
-		//95% Chance to successfully transmit the token
-		if (rand.nextInt(100) < 95)
-			writeToSocket(STPLPFrame.generateToken()); //Pass the Token
+		endHold(holdStart);
+		//Chance to lose the token (5% by default)
+		if (!getFaultModel().inject(Fault.TOKEN_LOSS))
+			releaseToken(); //Pass the Token
 //		else
 //			System.out.println("Node " + this.getNodeID() + " lost the token!");
 		return 0;
 	}
 	
+	/**
+	 * Adds a finished transmission to the holding time statistics.
+	 */
+	private void endHold(long holdStart) {
+		this.holds++;
+		this.holdNanos += nanoTime() - holdStart;
+	}
+	
+	/**
+	 * Returns the number of data bytes this Node still has to send.
+	 */
+	private long getBacklog() {
+		long backlog = this.transmitQueue.getQueuedBytes();
+		if (this.inputFile != null && !this.inputExhausted) {
+			backlog += this.inputFile.remaining();
+		}
+		return backlog;
+	}
+	
+	/**
+	 * Reads Frames from the input file until READ_AHEAD Frames are queued, assigning their Sequence Numbers.<br>
+	 * Reading stops early once the Node holds its byte budget in queued and outstanding Frames.
+	 */
+	private void readAhead() {
+		STPLPFrame frame;
+		while (!this.inputExhausted && this.transmitQueue.size() < READ_AHEAD &&
+				this.transmitQueue.getQueuedBytes() + this.waitingFrames.getOutstandingBytes() < this.byteBudget) {
+			frame = getFramePool().acquire();
+			try {
+				//A Node without an input file has nothing to send
+				if (this.inputFile == null || !this.inputFile.nextFrame(frame, (byte) this.getNodeID())) {
+					releaseFrame(frame);
+					this.inputExhausted = true;
+					return;
+				}
+			} catch (IOException e) {
+				System.out.println("No data to transmit");
+				releaseFrame(frame);
+				this.inputExhausted = true;
+				return;
+			}
+			frame.setSequenceNumber(this.nextSequenceNumber);
+			this.nextSequenceNumber = (this.nextSequenceNumber + 1) & STPLPFrame.MAX_SEQUENCE_NUMBER;
+			this.transmitQueue.add(frame);
+		}
+	}
+	
+	/**
+	 * Queues a Frame that was rejected or lost ahead of the new Frames of its priority.
+	 */
+	private void requeue(STPLPFrame frame) {
+		frame.setFrameStatus((byte) 0);
+		frame.zeroMonitorBit();
+		frame.setReservationLevel(0);
+		this.transmitQueue.addFirst(frame);
+		this.retransmissions++;
+	}
+	
+	/**
+	 * Returns the token a stacking Node passes on when the priority it raised comes back around.
+	 * @param reservation The highest priority requested since the priority was raised.
+	 * @return The token at the raised priority if it is still needed, otherwise at a lower one.
+	 */
+	private STPLPFrame lowerToken(int reservation) {
+		int top = this.stackDepth - 1;
+		if (reservation >= this.raisedPriorities[top]) {
+			//Another Node still needs this priority
+			return STPLPFrame.generateToken(this.raisedPriorities[top], 0);
+		}
+		if (reservation > this.stackedPriorities[top]) {
+			this.raisedPriorities[top] = reservation;
+			return STPLPFrame.generateToken(reservation, 0);
+		}
+		this.stackDepth--;
+		return STPLPFrame.generateToken(this.stackedPriorities[top], Math.max(reservation, 0));
+	}
+	
+	/**
+	 * Returns the token to pass on after a transmission.<br>
+	 * If a Node reserved a higher priority, or this Node still has more urgent Frames, the token's
+	 * priority is raised and the old priority is stacked so it can be restored later.
+	 */
+	private STPLPFrame nextToken() {
+		int reservation = Math.max(this.tokenReservation, this.transmitQueue.highestPriority());
+		if (reservation > this.tokenPriority && this.stackDepth < this.stackedPriorities.length) {
+			this.stackedPriorities[this.stackDepth] = this.tokenPriority;
+			this.raisedPriorities[this.stackDepth] = reservation;
+			this.stackDepth++;
+			return STPLPFrame.generateToken(reservation, 0);
+		}
+		return STPLPFrame.generateToken(this.tokenPriority, Math.max(reservation, 0));
+	}
+	
+	/**
+	 * Passes the token on at the end of a transmission.<br>
+	 * With Early Token Release the token immediately follows the last Frame, so Frames from several
+	 * Nodes can be on the ring at once. Otherwise the Node holds the token until every Frame it just
+	 * sent has come back, as in standard IEEE 802.5.
+	 */
+	private void releaseToken() {
+		if (this.earlyTokenRelease || this.unreturnedFrames <= 0) {
+			writeToken(nextToken());
+		} else {
+			this.holdingToken = true;
+		}
+	}
+	
+	/**
+	 * Passes a token on, stamped like the token this Node received. With credit flow control the
+	 * token carries every Node's receive credits, with this Node's entry refreshed from the room
+	 * left in its output.
+	 */
+	private void writeToken(STPLPFrame token) {
+		if (!this.creditFlowControl) {
+			if (this.tokenStamp == 0) {
+				//The ring's first token, the shared instance carries no stamp
+				writeToSocket(token);
+				return;
+			}
+			STPLPFrame stampedToken = getFramePool().acquire().setToken(token, this.tokenStamp);
+			writeToSocket(stampedToken);
+			releaseFrame(stampedToken);
+			return;
+		}
+		this.credits[this.getNodeID()] = (byte) Math.min(this.outputFile.getRemainingCapacity(), 0xff);
+		this.creditCount = Math.max(this.creditCount, this.getNodeID() + 1);
+		STPLPFrame creditToken = getFramePool().acquire().setCreditToken(token, this.credits, this.creditCount);
+		if (this.tokenStamp != 0) {
+			creditToken.setSequenceNumber(this.tokenStamp);
+		}
+		writeToSocket(creditToken);
+		releaseFrame(creditToken);
+	}
+	
+	/**
+	 * Takes the receive credits carried by an arriving token. Entries a regenerated token no longer
+	 * carries keep their last known value.
+	 */
+	private void readCredits(STPLPFrame token) {
+		int count = token.getDataSize();
+		System.arraycopy(token.getFrame(), token.getDataOffset(), this.credits, 0, count);
+		this.creditCount = Math.max(this.creditCount, count);
+	}
+	
+	/**
+	 * Called when one of this Node's outstanding Frames comes back, ACK or NAK.<br>
+	 * A held token is released once the last Frame of the transmission has returned, taking the
+	 * reservations made on the returning Frames into account.
+	 */
+	private void frameReturned(STPLPFrame returnedFrame) {
+		this.unreturnedFrames--;
+		this.tokenReservation = Math.max(this.tokenReservation, returnedFrame.getReservationLevel());
+		if (this.holdingToken && this.unreturnedFrames <= 0) {
+			this.holdingToken = false;
+			writeToken(nextToken());
+		}
+	}
+	
+	/**
+	 * Selects whether the token is released right behind the last Frame or once the Node's Frames
+	 * have returned.
+	 * @param earlyTokenRelease True for Early Token Release (the default).
+	 */
+	public void setEarlyTokenRelease(boolean earlyTokenRelease) {
+		this.earlyTokenRelease = earlyTokenRelease;
+	}
+	
+	/**
+	 * Limits the Frames this Node may have outstanding on the ring. Must be set before the Node starts,
+	 * since the transmit queue and the outstanding table are allocated for the window.
+	 * @param sendWindow The maximum number of unacknowledged Frames.
+	 */
+	public void setSendWindow(int sendWindow) {
+		this.sendWindow = Math.max(sendWindow, 1);
+		this.transmitQueue = new PriorityFrameQueue(READ_AHEAD + this.sendWindow);
+		this.waitingFrames = new OutstandingFrameTable(this.sendWindow);
+	}
+	
+	/**
+	 * Limits the data this Node holds in queued and outstanding Frames. At least one Frame is
+	 * always read, so a Frame larger than the budget is still sent.
+	 * @param byteBudget The budget in bytes.
+	 */
+	public void setByteBudget(long byteBudget) {
+		this.byteBudget = Math.max(byteBudget, 1);
+	}
+	
+	/**
+	 * Selects receiver driven flow control. Each Node then advertises the room left in its output
+	 * on the token and only refuses Frames it has no room for, instead of rejecting 20% at random.
+	 * Senders hold back Frames to destinations without credits and send to others meanwhile.
+	 * @param creditFlowControl True for credit based flow control.
+	 */
+	public void setCreditFlowControl(boolean creditFlowControl) {
+		this.creditFlowControl = creditFlowControl;
+	}
+	
+	/**
+	 * Selects whether Frames passing through are forwarded from their header alone or decoded first.
+	 * @param cutThrough True for cut-through forwarding (the default).
+	 */
+	public void setCutThrough(boolean cutThrough) {
+		this.cutThrough = cutThrough;
+	}
+	
+	/**
+	 * Forwards data Frames which are neither addressed to nor sent by this Node. Their only change
+	 * is the reservation made for this Node's most urgent Frame, which lies in the header.
+	 */
+	@Override
+	protected boolean cutThrough(byte[] buffer, int offset) {
+		if (!this.cutThrough || buffer[offset + STPLPFrame.FRAME_CONTROL_OFFSET] != 1) {
+			return false;
+		}
+		if ((buffer[offset + STPLPFrame.DESTINATION_OFFSET] & 0xff) == this.getNodeID() ||
+				(buffer[offset + STPLPFrame.SOURCE_OFFSET] & 0xff) == this.getNodeID()) {
+			return false;
+		}
+		STPLPFrame.raiseReservationLevel(buffer, offset, this.transmitQueue.highestPriority());
+		return true;
+	}
+	
+	/**
+	 * Lets the Node adjust its THT at runtime to keep the token rotation under a target.
+	 * @param targetRotation The rotation time the ring should stay under, in nanoseconds.
+	 */
+	public void setAdaptiveTHT(long targetRotation) {
+		this.thtController = newThtController(targetRotation);
+	}
+	
+	/**
+	 * Selects whether the THT counts payload bytes or microseconds.
+	 * @param thtMode The THT mode.
+	 */
+	public void setThtMode(ThtMode thtMode) {
+		this.thtMode = thtMode;
+		if (this.thtController != null) {
+			//The controller's bounds are in the unit of the old mode
+			this.thtController = newThtController(this.thtController.getTargetRotation());
+		}
+	}
+	
+	/**
+	 * Creates a THT controller bounded in the unit of the current THT mode.
+	 */
+	private ThtController newThtController(long targetRotation) {
+		if (this.thtMode == ThtMode.TIME) {
+			return new ThtController(this.THT, targetRotation, ThtController.MIN_TIME_THT, ThtController.MAX_TIME_THT);
+		}
+		return new ThtController(this.THT, targetRotation, ThtController.MIN_BYTES_THT, ThtController.MAX_BYTES_THT);
+	}
+	
+	/**
+	 * Returns a one line summary of how this Node used its token holding time.
+	 * @return The summary, times in microseconds.
+	 */
+	public String getHoldReport() {
+		return "NODE: id=" + this.getNodeID() +
+				" tht=" + this.THT + (this.thtMode == ThtMode.TIME ? "us" : "B") +
+				" holds=" + this.holds +
+				" frames_sent=" + this.framesSent +
+				" bytes_sent=" + this.bytesSent +
+				" hold_us=" + (this.holdNanos / 1000) +
+				" read_us=" + (this.readNanos / 1000) +
+				" encode_us=" + (this.encodeNanos / 1000) +
+				" write_us=" + (this.writeNanos / 1000) +
+				" retransmissions=" + this.retransmissions +
+				" duplicates=" + this.duplicatesDiscarded +
+				" window_stalls=" + this.windowStalls +
+				" credit_waits=" + this.creditWaits;
+	}
+	
+	/**
+	 * Returns the Node's current THT.
+	 * @return The THT in bytes, or microseconds in {@link ThtMode#TIME}.
+	 */
+	public int getTHT() {
+		return this.THT;
+	}
+	
+	/**
+	 * Returns the number of Frames written to this Node's output file.
+	 * @return The number of delivered Frames.
+	 */
+	public int getDeliveredFrames() {
+		return this.deliveredFrames;
+	}
+	
+	/**
+	 * Returns the number of data bytes written to this Node's output file.
+	 * @return The number of delivered bytes.
+	 */
+	public long getDeliveredBytes() {
+		return this.deliveredBytes;
+	}
+	
 	/**
 	 * Returns the Port this node is listening on
 	 * @return A port number
@@ -237,27 +810,140 @@ public class RelayNode extends Node implements Runnable {
 	}
 	
 	/**
-	 * This functions is implementing the required Runnable method
+	 * Returns the number of Frames this Node has retransmitted because they were lost or rejected.
+	 * @return The number of retransmissions.
+	 */
+	public int getRetransmissions() {
+		return this.retransmissions;
+	}
+	
+	/**
+	 * Returns the number of duplicate Frames this Node received and did not write out.
+	 * @return The number of discarded duplicates.
+	 */
+	public int getDuplicatesDiscarded() {
+		return this.duplicatesDiscarded;
+	}
+	
+	/**
+	 * Returns the window of Sequence Numbers accepted from a source, creating it on first use.
+	 */
+	private SequenceWindow receivedWindow(int sourceAddress) {
+		SequenceWindow window = this.receivedFrames[sourceAddress & 0xff];
+		if (window == null) {
+			window = new SequenceWindow();
+			this.receivedFrames[sourceAddress & 0xff] = window;
+		}
+		return window;
+	}
+	
+	/**
+	 * Returns how long a sent Frame may be outstanding before it is considered lost.<br>
+	 * A Frame travels the ring ahead of the token, so it should be back within one rotation.
+	 * Half a rotation is added as margin. Until a rotation has been measured the Node's time out is used.
+	 * @return The retransmission time out in nanoseconds.
+	 */
+	private long getRetransmitTimeOut() {
+		if (this.smoothedRotation == 0) {
+			return this.getTimeOutPeriod() * 1000000L;
+		}
+		return this.smoothedRotation + this.smoothedRotation / 2;
+	}
+	
+	/**
+	 * Updates the smoothed token rotation time with the rotation that just finished.
+	 */
+	private void recordTokenArrival(long now) {
+		if (this.lastTokenArrival != 0) {
+			long rotation = now - this.lastTokenArrival;
+			this.lastRotation = rotation;
+			if (this.smoothedRotation == 0) {
+				this.smoothedRotation = rotation;
+			} else {
+				//Exponentially weighted moving average with a weight of 1/8
+				this.smoothedRotation += (rotation - this.smoothedRotation) / 8;
+			}
+		}
+		this.lastTokenArrival = now;
+	}
+	
+	/**
+	 * Moves every Frame that is overdue to the retransmission buffer and enters the Transmit state.<br>
+	 * Frames still within their deadline stay outstanding, they are most likely still on the ring.
 	 */
+	private void transmitToken() {
+		long now = nanoTime();
+		recordTokenArrival(now);
+		this.waitingFrames.drainExpired(now, this.expiredFrames);
+		for (STPLPFrame frame : this.expiredFrames) {
+			requeue(frame);
+		}
+		this.expiredFrames.clear();
+		Transmit();
+	}
+	
+	/**
+	 * Closes the Node's transport and output file.
+	 */
+	private void shutdown() {
+		this.closeNode();
+		try {
+			this.outputFile.close();
+		} catch (IOException e) {
+			System.err.println("Could not write output file...");
+		}
+		if (this.inputFile != null) {
+			try {
+				this.inputFile.close();
+			} catch (IOException e) {
+				System.err.println("Could not close input file...");
+			}
+		}
+	}
+	
 	@Override
-	public void run() {
-		this.acceptClient();
+	public void start() {
 		if (this.getNodeID() == 1) {
-			//Node 1 generates the token and passes it to the neighboring node
+			//Node 1 generates the token and passes it to the neighboring node once the ring is up
+			awaitRingReady();
 			writeToSocket(STPLPFrame.generateToken());
 		}
+	}
+	
+	@Override
+	public boolean onFrame(STPLPFrame frame) {
+		int state = processFrame(frame);
+		releaseFrame(frame);
+		if (state == 1) {
+			shutdown();
+			return true;
+		}
+		if (state == 0) {
+			transmitToken();
+		}
+		return false;
+	}
+	
+	@Override
+	public boolean onTimeOut() {
+		return false;
+	}
+	
+	/**
+	 * This functions is implementing the required Runnable method
+	 */
+	@Override
+	public void run() {
+		this.acceptClient();
+		this.start();
 		while(true) {
 			if (Listen() == 1) {
 				//Kill Signal has been received
 				//System.out.println("Node: " + this.getNodeID() + " has received Kill Order 66");
-				this.closeNode();
-				this.outputFile.close();
+				shutdown();
 				return;
 			}
-			//Any frames that have not been ACK nor NAK are added for retransmission
-			this.frameBuffer.addAll(waitingFrames);
-			this.waitingFrames.clear();
-			Transmit();
+			transmitToken();
 		}
 	}
 }
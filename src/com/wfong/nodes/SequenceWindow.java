@@ -0,0 +1,98 @@
+package com.wfong.nodes;
+
+import java.util.Arrays;
+
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This class remembers which Sequence Numbers have been received from one source, so that a
+ * receiver can discard retransmitted copies of Frames it already accepted.<br>
+ * It is a sliding window bitmap anchored at the highest Sequence Number seen. Numbers that fell
+ * out of the back of the window are treated as duplicates.
+ * @author William Fong
+ *
+ */
+public class SequenceWindow {
+	//Number of Sequence Numbers tracked behind the highest one
+	public static final int WINDOW_SIZE = 1024;
+	private static final int SEQUENCE_SPACE = STPLPFrame.MAX_SEQUENCE_NUMBER + 1;
+	private final long[] bits;
+	private int highest;
+	private boolean empty;
+
+	/**
+	 * Creates an empty window.
+	 */
+	public SequenceWindow() {
+		this.bits = new long[WINDOW_SIZE / 64];
+		this.empty = true;
+	}
+
+	/**
+	 * Returns true if a Frame with this Sequence Number has already been received.
+	 * @param sequenceNumber The Sequence Number.
+	 * @return True if the Frame is a duplicate.
+	 */
+	public boolean isDuplicate(int sequenceNumber) {
+		if (this.empty) {
+			return false;
+		}
+		int distance = distance(sequenceNumber);
+		if (distance > 0) {
+			return false;
+		}
+		if (distance <= -WINDOW_SIZE) {
+			return true;
+		}
+		return isSet(sequenceNumber);
+	}
+
+	/**
+	 * Records a received Sequence Number, sliding the window forward if needed.
+	 * @param sequenceNumber The Sequence Number.
+	 */
+	public void markReceived(int sequenceNumber) {
+		if (this.empty) {
+			this.empty = false;
+			this.highest = sequenceNumber;
+		}
+		int distance = distance(sequenceNumber);
+		if (distance > 0) {
+			//Forget the numbers that slide out of the window
+			if (distance >= WINDOW_SIZE) {
+				Arrays.fill(this.bits, 0L);
+			} else {
+				for (int i = 1; i <= distance; i++) {
+					clear((this.highest + i) & STPLPFrame.MAX_SEQUENCE_NUMBER);
+				}
+			}
+			this.highest = sequenceNumber;
+		} else if (distance <= -WINDOW_SIZE) {
+			return;
+		}
+		set(sequenceNumber);
+	}
+
+	/**
+	 * Returns the signed distance from the highest Sequence Number, taking wrap around into account.
+	 */
+	private int distance(int sequenceNumber) {
+		int distance = (sequenceNumber - this.highest) & STPLPFrame.MAX_SEQUENCE_NUMBER;
+		return distance >= SEQUENCE_SPACE / 2 ? distance - SEQUENCE_SPACE : distance;
+	}
+
+	private boolean isSet(int sequenceNumber) {
+		int bit = sequenceNumber & (WINDOW_SIZE - 1);
+		return (this.bits[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	private void set(int sequenceNumber) {
+		int bit = sequenceNumber & (WINDOW_SIZE - 1);
+		this.bits[bit >>> 6] |= 1L << bit;
+	}
+
+	private void clear(int sequenceNumber) {
+		int bit = sequenceNumber & (WINDOW_SIZE - 1);
+		this.bits[bit >>> 6] &= ~(1L << bit);
+	}
+}
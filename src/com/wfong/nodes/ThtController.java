@@ -0,0 +1,103 @@
+package com.wfong.nodes;
+
+/**
+ * This class adjusts a Node's Token Holding Time at runtime.<br>
+ * The ring-wide goal is a bound on the token rotation time. While rotations stay under the bound,
+ * a Node whose backlog does not fit in one holding period grows its THT in proportion to the
+ * remaining headroom. As soon as a rotation exceeds the bound, every Node shrinks its THT by a
+ * quarter. Both steps are proportional to the current THT, so the Nodes follow changes in load
+ * without an offline sweep, but they do not converge to equal shares: a Node keeps the ratio of
+ * its THT to the others' THTs across increases and decreases alike.
+ * @author William Fong
+ *
+ */
+public class ThtController {
+	//Smallest THT in bytes, always enough for one small Frame
+	public static final int MIN_BYTES_THT = 16;
+	//Largest THT in bytes, sixteen maximum sized Frames
+	public static final int MAX_BYTES_THT = 16 * 0xff;
+	//Smallest THT in microseconds, enough to send a few Frames over a local connection
+	public static final int MIN_TIME_THT = 100;
+	//Largest THT in microseconds, the 10 ms holding time of an IEEE 802.5 ring
+	public static final int MAX_TIME_THT = 10000;
+	private long targetRotation;
+	private int minTHT;
+	private int maxTHT;
+	//Smallest increase of the THT
+	private int minIncrease;
+	private int THT;
+	private int increases;
+	private int decreases;
+
+	/**
+	 * Creates a controller.
+	 * @param initialTHT The THT to start with.
+	 * @param targetRotation The rotation time the ring should stay under, in nanoseconds.
+	 * @param minTHT The smallest THT, in the unit of the Node's THT.
+	 * @param maxTHT The largest THT, in the unit of the Node's THT.
+	 */
+	public ThtController(int initialTHT, long targetRotation, int minTHT, int maxTHT) {
+		this.minTHT = minTHT;
+		this.maxTHT = Math.max(minTHT, maxTHT);
+		this.minIncrease = Math.max(1, minTHT / 2);
+		this.THT = Math.max(this.minTHT, Math.min(this.maxTHT, initialTHT));
+		this.targetRotation = targetRotation;
+		this.increases = 0;
+		this.decreases = 0;
+	}
+
+	/**
+	 * Computes the THT for the token that just arrived.
+	 * @param rotation The last token rotation time in nanoseconds, or 0 if it is not a valid sample.
+	 * @param backlog The amount the Node still has to send, in the same unit as the THT.
+	 * @return The new THT.
+	 */
+	public int update(long rotation, long backlog) {
+		if (rotation <= 0) {
+			return this.THT;
+		}
+		if (rotation > this.targetRotation) {
+			//The ring is too slow, give up a quarter of the holding time
+			this.THT = Math.max(this.minTHT, this.THT - this.THT / 4);
+			this.decreases++;
+		} else if (backlog > this.THT) {
+			//Take part of the headroom left under the target
+			long headroom = this.THT * (this.targetRotation - rotation) / (2 * this.targetRotation);
+			this.THT = (int) Math.min(this.maxTHT, this.THT + Math.max(this.minIncrease, headroom));
+			this.increases++;
+		}
+		return this.THT;
+	}
+
+	/**
+	 * Returns the current THT.
+	 * @return The THT.
+	 */
+	public int getTHT() {
+		return this.THT;
+	}
+
+	/**
+	 * Returns the target rotation time.
+	 * @return The target in nanoseconds.
+	 */
+	public long getTargetRotation() {
+		return this.targetRotation;
+	}
+
+	/**
+	 * Returns the number of times the THT was increased.
+	 * @return The number of increases.
+	 */
+	public int getIncreases() {
+		return this.increases;
+	}
+
+	/**
+	 * Returns the number of times the THT was decreased.
+	 * @return The number of decreases.
+	 */
+	public int getDecreases() {
+		return this.decreases;
+	}
+}
@@ -0,0 +1,26 @@
+package com.wfong.nodes;
+
+/**
+ * This enum lists how a Node's Token Holding Time is measured.
+ * @author William Fong
+ *
+ */
+public enum ThtMode {
+	/**
+	 * The THT is a number of payload bytes.
+	 */
+	BYTES,
+	/**
+	 * The THT is a wall-clock budget in microseconds, as in a real token ring.
+	 */
+	TIME;
+
+	/**
+	 * Parses a THT mode from the command line.
+	 * @param name "bytes" or "time" (case insensitive).
+	 * @return The THT mode.
+	 */
+	public static ThtMode parse(String name) {
+		return valueOf(name.toUpperCase());
+	}
+}
@@ -0,0 +1,125 @@
+package com.wfong.simulation;
+
+import java.util.Arrays;
+
+/**
+ * This class is the simulator's queue of scheduled events, a binary heap ordered by time and then
+ * by the order the events were scheduled in.<br>
+ * The times and sequence numbers are kept in arrays of their own beside the events, so sifting an
+ * event compares primitives that sit next to each other in memory instead of following a
+ * reference and calling compareTo for every level of the heap.
+ * @author William Fong
+ *
+ * @param <E> The type of the events.
+ */
+class EventQueue<E> {
+	private static final int INITIAL_CAPACITY = 1024;
+	private long[] times;
+	private long[] sequences;
+	private Object[] events;
+	private int size;
+
+	EventQueue() {
+		this.times = new long[INITIAL_CAPACITY];
+		this.sequences = new long[INITIAL_CAPACITY];
+		this.events = new Object[INITIAL_CAPACITY];
+		this.size = 0;
+	}
+
+	/**
+	 * Adds an event to the queue.
+	 * @param event The event.
+	 * @param time The time the event is due at.
+	 * @param sequence The order of the event among events due at the same time.
+	 */
+	void add(E event, long time, long sequence) {
+		if (this.size == this.events.length) {
+			int capacity = this.size * 2;
+			this.times = Arrays.copyOf(this.times, capacity);
+			this.sequences = Arrays.copyOf(this.sequences, capacity);
+			this.events = Arrays.copyOf(this.events, capacity);
+		}
+		//Sift up: move parents down until the event's place is found
+		int index = this.size++;
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (!before(time, sequence, this.times[parent], this.sequences[parent])) {
+				break;
+			}
+			move(parent, index);
+			index = parent;
+		}
+		set(index, event, time, sequence);
+	}
+
+	/**
+	 * Removes and returns the earliest event.
+	 * @return The event, null if the queue is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	E poll() {
+		if (this.size == 0) {
+			return null;
+		}
+		E first = (E) this.events[0];
+		int last = --this.size;
+		Object event = this.events[last];
+		long time = this.times[last];
+		long sequence = this.sequences[last];
+		this.events[last] = null;
+		if (last == 0) {
+			return first;
+		}
+		//Sift down: move the earlier child up until the last event's place is found
+		int index = 0;
+		int half = last >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			int right = child + 1;
+			if (right < last && before(this.times[right], this.sequences[right], this.times[child], this.sequences[child])) {
+				child = right;
+			}
+			if (!before(this.times[child], this.sequences[child], time, sequence)) {
+				break;
+			}
+			move(child, index);
+			index = child;
+		}
+		set(index, event, time, sequence);
+		return first;
+	}
+
+	/**
+	 * Tells whether this queue's earliest event comes before another queue's. Both queues must
+	 * hold events and take their sequence numbers from the same counter.
+	 * @param other The other queue.
+	 * @return True if this queue's event is due first.
+	 */
+	boolean precedes(EventQueue<?> other) {
+		return before(this.times[0], this.sequences[0], other.times[0], other.sequences[0]);
+	}
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	private static boolean before(long time, long sequence, long otherTime, long otherSequence) {
+		return time < otherTime || (time == otherTime && sequence < otherSequence);
+	}
+
+	private void move(int from, int to) {
+		this.times[to] = this.times[from];
+		this.sequences[to] = this.sequences[from];
+		this.events[to] = this.events[from];
+	}
+
+	private void set(int index, Object event, long time, long sequence) {
+		this.times[index] = time;
+		this.sequences[index] = sequence;
+		this.events[index] = event;
+	}
+}
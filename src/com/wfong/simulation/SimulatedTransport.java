@@ -0,0 +1,142 @@
+package com.wfong.simulation;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import com.wfong.transport.Transport;
+
+/**
+ * This class links Nodes driven by a {@link Simulator}. Written bytes are not copied to the
+ * downstream Node right away, they are scheduled to arrive once the link has serialized them and
+ * they have propagated to the next Node.<br>
+ * Reads never block, they return 0 while nothing has arrived.
+ * @author William Fong
+ *
+ */
+public class SimulatedTransport implements Transport {
+	private final Simulator simulator;
+	private SimulatedTransport downstream;
+	//Deliveries which have arrived but have not been read yet
+	private final ArrayDeque<Simulator.Delivery> input;
+	//Index of the first unread byte of the first delivery
+	private int inputOffset;
+	private boolean upstreamClosed;
+	private boolean inputClosed;
+	private boolean outputClosed;
+	//Virtual time at which the link has finished sending the bytes written so far
+	private long linkFreeAt;
+	//The Node reading this transport's input, set by the simulator
+	Simulator.NodeContext context;
+
+	/**
+	 * Creates a transport whose bytes travel on the simulator's virtual clock.
+	 * @param simulator The simulator driving the ring.
+	 */
+	SimulatedTransport(Simulator simulator) {
+		this.simulator = simulator;
+		this.input = new ArrayDeque<Simulator.Delivery>();
+	}
+
+	@Override
+	public int openInput() {
+		return 0;
+	}
+
+	@Override
+	public void connect(Transport downstream) throws IOException {
+		if (!(downstream instanceof SimulatedTransport)) {
+			throw new IOException("Cannot connect a simulated transport to " + downstream);
+		}
+		this.downstream = (SimulatedTransport) downstream;
+	}
+
+	@Override
+	public void acceptInput() {
+		//The link exists from construction, there is nothing to accept
+	}
+
+	@Override
+	public void setTimeOut(int timeOutPeriod) {
+		//Time outs are scheduled by the simulator
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) {
+		if (this.input.isEmpty()) {
+			return this.upstreamClosed ? -1 : 0;
+		}
+		int bytesRead = 0;
+		while (bytesRead < length && !this.input.isEmpty()) {
+			Simulator.Delivery delivery = this.input.peekFirst();
+			int count = Math.min(length - bytesRead, delivery.length - this.inputOffset);
+			System.arraycopy(delivery.bytes, this.inputOffset, buffer, offset + bytesRead, count);
+			bytesRead += count;
+			this.inputOffset += count;
+			if (this.inputOffset == delivery.length) {
+				this.simulator.releaseDelivery(this.input.pollFirst());
+				this.inputOffset = 0;
+			}
+		}
+		return bytesRead;
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		if (this.outputClosed) {
+			throw new IOException("Simulated link is closed");
+		}
+		Simulator.Delivery delivery = this.simulator.acquireDelivery(length);
+		System.arraycopy(buffer, offset, delivery.bytes, 0, length);
+		this.simulator.deliver(this.downstream, delivery, arrivalTime(length));
+	}
+
+	@Override
+	public void closeOutput() {
+		if (this.outputClosed || this.downstream == null) {
+			return;
+		}
+		this.outputClosed = true;
+		//End of stream arrives behind the last byte
+		Simulator.Delivery delivery = this.simulator.acquireDelivery(0);
+		delivery.endOfStream = true;
+		this.simulator.deliver(this.downstream, delivery, arrivalTime(0));
+	}
+
+	@Override
+	public void closeInput() {
+		this.inputClosed = true;
+		while (!this.input.isEmpty()) {
+			this.simulator.releaseDelivery(this.input.pollFirst());
+		}
+	}
+
+	/**
+	 * Reserves the link for length bytes and returns when the last of them reaches the downstream Node.
+	 */
+	private long arrivalTime(int length) {
+		long start = Math.max(this.simulator.nanoTime(), this.linkFreeAt);
+		this.linkFreeAt = start + this.simulator.serializationDelay(length);
+		return this.linkFreeAt + this.simulator.getPropagationDelay();
+	}
+
+	/**
+	 * Queues bytes arriving from the upstream Node. The delivery is kept until it has been read,
+	 * or given back to the simulator right away if it carries nothing to read.
+	 * @param delivery The bytes, or the end of the stream once the upstream Node closed the link.
+	 */
+	void receive(Simulator.Delivery delivery) {
+		if (delivery.endOfStream && !this.inputClosed) {
+			this.upstreamClosed = true;
+		}
+		if (this.inputClosed || delivery.endOfStream || delivery.length == 0) {
+			this.simulator.releaseDelivery(delivery);
+			return;
+		}
+		this.input.addLast(delivery);
+	}
+
+	@Override
+	public String toString() {
+		return "SimulatedTransport";
+	}
+}
@@ -0,0 +1,370 @@
+package com.wfong.simulation;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.wfong.nodes.Clock;
+import com.wfong.nodes.Node;
+import com.wfong.nodes.NodeStateMachine;
+import com.wfong.token.STPLPFrame;
+
+/**
+ * This class runs a whole ring as a discrete-event simulation on the calling thread. The Nodes
+ * execute their usual protocol through {@link NodeStateMachine}, but time only advances from one
+ * scheduled event to the next: the arrival of bytes sent over a {@link SimulatedTransport}, or the
+ * expiry of a Node's time out.<br>
+ * Events due at the same time fire in the order they were scheduled, so a ring whose Nodes use
+ * seeded random number generators replays exactly. Processing inside a Node takes no virtual time,
+ * only the links do.<br>
+ * Every write is one event carrying the whole write, in a buffer that is recycled once the
+ * downstream Node has read it, so a hop does not allocate.
+ * @author William Fong
+ *
+ */
+public class Simulator implements Clock, Runnable {
+	//Default link speed, that of a 16 Mbit/s token ring
+	public static final long DEFAULT_BIT_RATE = 16000000L;
+	//Default delay from one Node to the next (200 m of cable)
+	public static final long DEFAULT_PROPAGATION_DELAY = 1000L;
+
+	/**
+	 * Something scheduled to happen at a point of virtual time.
+	 */
+	private static abstract class Event {
+		private long time;
+
+		protected abstract void fire();
+	}
+
+	/**
+	 * The arrival of bytes at a Node. The receiving transport keeps the delivery until its bytes
+	 * have been read, then gives it back with {@link Simulator#releaseDelivery(Delivery)}.
+	 */
+	class Delivery extends Event {
+		private SimulatedTransport target;
+		//Holds the bytes in its first length bytes, kept when the delivery is recycled
+		byte[] bytes;
+		int length;
+		//Set for the end of the stream, which carries no bytes
+		boolean endOfStream;
+
+		@Override
+		protected void fire() {
+			SimulatedTransport target = this.target;
+			this.target = null;
+			target.receive(this);
+			if (target.context != null) {
+				handleInput(target.context);
+			}
+		}
+	}
+
+	/**
+	 * A Node's time out, fired once the Node has received nothing for its time out period.
+	 */
+	private class TimeOut extends Event {
+		private final NodeContext context;
+
+		private TimeOut(NodeContext context) {
+			this.context = context;
+		}
+
+		@Override
+		protected void fire() {
+			this.context.timerPending = false;
+			if (this.context.terminated) {
+				return;
+			}
+			if (this.context.deadline > now) {
+				//Bytes arrived since the time out was scheduled, wait for the later deadline
+				scheduleTimeOut(this.context);
+				return;
+			}
+			if (this.context.stateMachine.onTimeOut()) {
+				terminate(this.context);
+				return;
+			}
+			rearm(this.context);
+		}
+	}
+
+	/**
+	 * The state the simulator keeps for each Node.
+	 */
+	class NodeContext {
+		private final Node node;
+		private final NodeStateMachine stateMachine;
+		//Virtual time the Node's time out expires at
+		private long deadline;
+		private boolean timerPending;
+		private boolean terminated;
+
+		private NodeContext(Node node) {
+			this.node = node;
+			this.stateMachine = (NodeStateMachine) node;
+		}
+	}
+
+	private final EventQueue<Event> events;
+	//Time outs are queued apart from the deliveries: one per Node lies far ahead of every
+	//delivery and would only deepen the heap the deliveries are sifted through
+	private final EventQueue<Event> timeOuts;
+	//Deliveries whose bytes have been read, reused for later writes
+	private final ArrayDeque<Delivery> freeDeliveries;
+	private final List<NodeContext> nodes;
+	private long now;
+	private long nextSequence;
+	private long eventCount;
+	private int activeNodes;
+	private long bitRate;
+	private long propagationDelay;
+
+	/**
+	 * Creates a simulator whose links run at the default bit rate and propagation delay.
+	 */
+	public Simulator() {
+		this.events = new EventQueue<Event>();
+		this.timeOuts = new EventQueue<Event>();
+		this.freeDeliveries = new ArrayDeque<Delivery>();
+		this.nodes = new ArrayList<NodeContext>();
+		this.now = 0;
+		this.nextSequence = 0;
+		this.eventCount = 0;
+		this.activeNodes = 0;
+		this.bitRate = DEFAULT_BIT_RATE;
+		this.propagationDelay = DEFAULT_PROPAGATION_DELAY;
+	}
+
+	/**
+	 * Creates a transport carrying its bytes on this simulator's links.
+	 * @return A transport for one Node.
+	 */
+	public SimulatedTransport newTransport() {
+		return new SimulatedTransport(this);
+	}
+
+	/**
+	 * Accepts the upstream connection of every Node and hands the Nodes to the simulator.<br>
+	 * Every Node must already be connected to its downstream neighbor, and the Nodes are switched
+	 * to the simulator's clock.
+	 * @param nodes The Nodes of the ring, they must use a SimulatedTransport and implement NodeStateMachine.
+	 * @throws IOException If a Node does not use a SimulatedTransport.
+	 */
+	public void addNodes(List<? extends Node> nodes) throws IOException {
+		for (Node node : nodes) {
+			if (!(node.getTransport() instanceof SimulatedTransport)) {
+				throw new IOException("Node " + node.getNodeID() + " does not use a simulated transport");
+			}
+			NodeContext context = new NodeContext(node);
+			node.setClock(this);
+			node.acceptClient();
+			((SimulatedTransport) node.getTransport()).context = context;
+			this.nodes.add(context);
+			this.activeNodes++;
+		}
+	}
+
+	/**
+	 * Starts every Node and fires events until all Nodes have terminated or nothing is left to happen.
+	 */
+	@Override
+	public void run() {
+		start();
+		while (step()) {
+			//Keep firing
+		}
+		if (this.activeNodes > 0) {
+			System.err.println("Simulation stalled: " + this.activeNodes + " Nodes have not terminated");
+		}
+	}
+
+	/**
+	 * Starts every Node, which schedules the first events. Called once before {@link #step()}.
+	 */
+	public void start() {
+		for (NodeContext context : this.nodes) {
+			context.stateMachine.start();
+			rearm(context);
+		}
+	}
+
+	/**
+	 * Advances the virtual time to the next event and fires it.
+	 * @return False once all Nodes have terminated or nothing is left to happen.
+	 */
+	public boolean step() {
+		if (this.activeNodes == 0) {
+			return false;
+		}
+		EventQueue<Event> queue = this.events;
+		if (queue.isEmpty() || (!this.timeOuts.isEmpty() && this.timeOuts.precedes(queue))) {
+			queue = this.timeOuts;
+		}
+		Event event = queue.poll();
+		if (event == null) {
+			return false;
+		}
+		this.now = event.time;
+		this.eventCount++;
+		event.fire();
+		return true;
+	}
+
+	/**
+	 * Returns the virtual time, which starts at 0.
+	 * @return The virtual time in nanoseconds.
+	 */
+	@Override
+	public long nanoTime() {
+		return this.now;
+	}
+
+	/**
+	 * Returns the number of events fired so far.
+	 * @return The number of events.
+	 */
+	public long getEventCount() {
+		return this.eventCount;
+	}
+
+	/**
+	 * Sets the speed of every link.
+	 * @param bitRate The bit rate in bits per second, 0 for links that take no time to send.
+	 */
+	public void setBitRate(long bitRate) {
+		this.bitRate = Math.max(bitRate, 0);
+	}
+
+	public long getBitRate() {
+		return this.bitRate;
+	}
+
+	/**
+	 * Sets the time bytes take from one Node to the next once they are sent.
+	 * @param propagationDelay The delay in nanoseconds.
+	 */
+	public void setPropagationDelay(long propagationDelay) {
+		this.propagationDelay = Math.max(propagationDelay, 0);
+	}
+
+	public long getPropagationDelay() {
+		return this.propagationDelay;
+	}
+
+	/**
+	 * Returns the time a link needs to send a number of bytes.
+	 * @param length The number of bytes.
+	 * @return The delay in nanoseconds.
+	 */
+	long serializationDelay(int length) {
+		if (this.bitRate == 0) {
+			return 0;
+		}
+		return length * 8L * TimeUnit.SECONDS.toNanos(1) / this.bitRate;
+	}
+
+	/**
+	 * Returns an unused delivery able to carry a number of bytes.
+	 * @param length The number of bytes, 0 for the end of the stream.
+	 * @return A delivery whose length is set, its bytes are filled by the caller.
+	 */
+	Delivery acquireDelivery(int length) {
+		Delivery delivery = this.freeDeliveries.poll();
+		if (delivery == null) {
+			delivery = new Delivery();
+		}
+		if (delivery.bytes == null || delivery.bytes.length < length) {
+			delivery.bytes = new byte[Math.max(length, STPLPFrame.MAX_FRAME_LENGTH)];
+		}
+		delivery.length = length;
+		delivery.endOfStream = false;
+		return delivery;
+	}
+
+	/**
+	 * Recycles a delivery whose bytes have been read or dropped.
+	 * @param delivery The delivery.
+	 */
+	void releaseDelivery(Delivery delivery) {
+		this.freeDeliveries.push(delivery);
+	}
+
+	/**
+	 * Schedules bytes to arrive at a Node.
+	 * @param target The transport of the receiving Node.
+	 * @param delivery The bytes, from {@link #acquireDelivery(int)}.
+	 * @param time The virtual time of the arrival.
+	 */
+	void deliver(SimulatedTransport target, Delivery delivery, long time) {
+		delivery.target = target;
+		schedule(this.events, delivery, time);
+	}
+
+	/**
+	 * Adds an event to a queue, behind every event already scheduled for the same time.
+	 */
+	private void schedule(EventQueue<Event> queue, Event event, long time) {
+		event.time = time;
+		queue.add(event, time, this.nextSequence++);
+	}
+
+	/**
+	 * Reads every byte that has arrived at a Node and hands each complete Frame to the Node.
+	 */
+	private void handleInput(NodeContext context) {
+		if (context.terminated) {
+			return;
+		}
+		int bytesRead;
+		STPLPFrame frame;
+		do {
+			try {
+				bytesRead = context.node.fillDecoder();
+			} catch (IOException e) {
+				bytesRead = -1;
+			}
+			while ((frame = context.node.pollFrame()) != null) {
+				if (context.stateMachine.onFrame(frame)) {
+					terminate(context);
+					return;
+				}
+			}
+		} while (bytesRead > 0);
+		if (bytesRead < 0) {
+			//Upstream closed the link, nothing more will arrive
+			return;
+		}
+		rearm(context);
+	}
+
+	/**
+	 * Pushes back a Node's time out, like SO_TIMEOUT being reset by a read.<br>
+	 * At most one time out event per Node is queued, it is moved to the new deadline when it fires.
+	 */
+	private void rearm(NodeContext context) {
+		long timeOutNanos = TimeUnit.MILLISECONDS.toNanos(context.node.getTimeOutPeriod());
+		if (timeOutNanos <= 0) {
+			return;
+		}
+		context.deadline = this.now + timeOutNanos;
+		if (!context.timerPending) {
+			scheduleTimeOut(context);
+		}
+	}
+
+	private void scheduleTimeOut(NodeContext context) {
+		context.timerPending = true;
+		schedule(this.timeOuts, new TimeOut(context), context.deadline);
+	}
+
+	/**
+	 * Stops delivering events to a Node that has terminated.
+	 */
+	private void terminate(NodeContext context) {
+		context.terminated = true;
+		this.activeNodes--;
+	}
+}
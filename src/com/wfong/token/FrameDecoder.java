@@ -0,0 +1,252 @@
+package com.wfong.token;
+
+import java.util.Arrays;
+
+/**
+ * This class reassembles STPLP Frames from a stream of bytes. Bytes are read straight into a
+ * buffer owned by the decoder, which is allocated once per Node and reused for every frame.<br>
+ * A frame is only handed out once all of its bytes have arrived, so short reads from the
+ * underlying stream never produce truncated frames.<br>
+ * Corrupted bytes are skipped up to the next Start Delimiter that begins a frame with a
+ * valid Frame Check Sequence, so a damaged frame costs only that frame.
+ * @author William Fong
+ *
+ */
+public class FrameDecoder {
+	//Buffer the incoming bytes are read into
+	private byte[] buffer;
+	//Index of the first byte that has not been decoded yet
+	private int position;
+	//Index one past the last byte read into the buffer
+	private int limit;
+	//Number of bytes skipped while searching for a frame boundary
+	private long discardedBytes;
+	//Number of complete frames which failed the Frame Check Sequence
+	private long corruptFrames;
+
+	/**
+	 * Creates a decoder able to hold several standard frames of maximum size.<br>
+	 * The buffer grows when an extended frame does not fit.
+	 */
+	public FrameDecoder() {
+		this(STPLPFrame.MAX_FRAME_LENGTH * 4);
+	}
+
+	/**
+	 * Creates a decoder with the specified buffer capacity.
+	 * @param capacity The initial buffer capacity in bytes (at least one maximum sized standard frame).
+	 */
+	public FrameDecoder(int capacity) {
+		this.buffer = new byte[Math.max(capacity, STPLPFrame.MAX_FRAME_LENGTH)];
+		this.position = 0;
+		this.limit = 0;
+	}
+
+	/**
+	 * Returns the buffer bytes should be read into. Only the region starting at
+	 * {@link #getWriteOffset()} of length {@link #getWritableLength()} may be written.
+	 * @return The decoder's buffer.
+	 */
+	public byte[] getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * Returns the offset at which the next read should place its bytes.<br>
+	 * The buffer is compacted first if the pending frame would not fit behind it.
+	 * @return The write offset.
+	 */
+	public int getWriteOffset() {
+		if (this.position > 0 && this.buffer.length - this.position < STPLPFrame.MAX_FRAME_LENGTH) {
+			compact();
+		}
+		return this.limit;
+	}
+
+	/**
+	 * Returns the number of bytes that may be read into the buffer.
+	 * @return The free space behind the buffered bytes.
+	 */
+	public int getWritableLength() {
+		return this.buffer.length - getWriteOffset();
+	}
+
+	/**
+	 * Marks bytes as read into the buffer.
+	 * @param bytesRead The number of bytes placed at the write offset.
+	 */
+	public void advance(int bytesRead) {
+		this.limit += bytesRead;
+	}
+
+	/**
+	 * Returns the number of buffered bytes which have not been decoded yet.
+	 * @return The number of pending bytes.
+	 */
+	public int available() {
+		return this.limit - this.position;
+	}
+
+	/**
+	 * Returns the length of the next frame if it has been completely buffered.
+	 * @return The frame length, or -1 if more bytes are needed.
+	 */
+	public int pendingFrameLength() {
+		int frameLength;
+		while ((frameLength = pendingHeader()) >= 0) {
+			if (available() < frameLength) {
+				if (this.buffer.length - this.position < frameLength) {
+					reserve(frameLength);
+				}
+				return -1;
+			}
+			if (!STPLPFrame.hasValidChecksum(this.buffer, this.position)) {
+				this.corruptFrames++;
+				resynchronize();
+				continue;
+			}
+			return frameLength;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Skips to the next plausible frame header and returns the length of its frame.<br>
+	 * Only the header has to be buffered, so the frame's checksum has not been checked.
+	 * @return The frame length, or -1 if more bytes are needed.
+	 */
+	public int pendingHeader() {
+		while (available() >= STPLPFrame.HEADER_LENGTH) {
+			if (isFrameStart(this.position)) {
+				return STPLPFrame.frameLength(this.buffer, this.position);
+			}
+			resynchronize();
+		}
+		return -1;
+	}
+	
+	/**
+	 * Checks whether a buffered header could begin a frame.
+	 * @param offset The index of the candidate Start Delimiter.
+	 * @return True if the Start Delimiter and Frame Control are consistent.
+	 */
+	private boolean isFrameStart(int offset) {
+		if (STPLPFrame.isExtended(this.buffer, offset)) {
+			//Extended frames only carry payloads too large for the standard format
+			return this.buffer[offset + STPLPFrame.FRAME_CONTROL_OFFSET] == 1 &&
+					STPLPFrame.dataSize(this.buffer, offset) > STPLPFrame.MAX_DATA_SIZE;
+		}
+		if (this.buffer[offset] != STPLPFrame.START_DELIMITER) {
+			return false;
+		}
+		int frameControl = this.buffer[offset + STPLPFrame.FRAME_CONTROL_OFFSET] & 0xff;
+		if (frameControl == 0) {
+			//Control signals carry no data, tokens may carry receive credits
+			return this.buffer[offset + STPLPFrame.SIZE_OFFSET] == 0 ||
+					(this.buffer[offset + STPLPFrame.ACCESS_CONTROL_OFFSET] & 0x8) != 0;
+		}
+		return frameControl == 1;
+	}
+	
+	/**
+	 * Skips the byte at the front of the buffer and everything up to the next Start Delimiter.
+	 */
+	private void resynchronize() {
+		int next = this.position + 1;
+		while (next < this.limit && this.buffer[next] != STPLPFrame.START_DELIMITER &&
+				this.buffer[next] != STPLPFrame.EXTENDED_DELIMITER) {
+			next++;
+		}
+		this.discardedBytes += next - this.position;
+		consume(next - this.position);
+	}
+	
+	/**
+	 * Returns the number of bytes skipped while searching for a frame boundary.
+	 * @return The number of discarded bytes.
+	 */
+	public long getDiscardedBytes() {
+		return this.discardedBytes;
+	}
+	
+	/**
+	 * Returns the number of complete frames dropped because their Frame Check Sequence did not match.
+	 * @return The number of corrupt frames.
+	 */
+	public long getCorruptFrames() {
+		return this.corruptFrames;
+	}
+
+	/**
+	 * Removes the next complete frame from the buffer, copying it into a frame from the pool.
+	 * @param pool The pool to take the frame from.
+	 * @return The decoded frame, or null if the frame has not been completely received.
+	 */
+	public STPLPFrame poll(FramePool pool) {
+		int frameLength = pendingFrameLength();
+		if (frameLength < 0) {
+			return null;
+		}
+		STPLPFrame frame = pool.acquire().setFrame(this.buffer, this.position, frameLength);
+		consume(frameLength);
+		return frame;
+	}
+
+	/**
+	 * Returns the index of the first pending byte in the buffer.
+	 * @return The offset of the next frame's Start Delimiter once a header is pending.
+	 */
+	public int getPosition() {
+		return this.position;
+	}
+	
+	/**
+	 * Discards pending bytes which have been handled without decoding, such as a forwarded frame.
+	 * @param count The number of bytes, at most {@link #available()}.
+	 */
+	public void skip(int count) {
+		consume(count);
+	}
+	
+	/**
+	 * Marks bytes at the front of the buffer as decoded.
+	 */
+	private void consume(int frameLength) {
+		this.position += frameLength;
+		if (this.position == this.limit) {
+			this.position = 0;
+			this.limit = 0;
+		}
+	}
+
+	/**
+	 * Discards every buffered byte.
+	 */
+	public void clear() {
+		this.position = 0;
+		this.limit = 0;
+	}
+
+	/**
+	 * Makes room for a whole frame behind the first pending byte, growing the buffer if needed.
+	 */
+	private void reserve(int frameLength) {
+		if (this.buffer.length < frameLength) {
+			this.buffer = Arrays.copyOfRange(this.buffer, this.position, this.position + frameLength);
+			this.limit -= this.position;
+			this.position = 0;
+			return;
+		}
+		compact();
+	}
+	
+	/**
+	 * Moves the pending bytes to the start of the buffer.
+	 */
+	private void compact() {
+		int pending = available();
+		System.arraycopy(this.buffer, this.position, this.buffer, 0, pending);
+		this.position = 0;
+		this.limit = pending;
+	}
+}
@@ -0,0 +1,61 @@
+package com.wfong.token;
+
+import java.util.ArrayDeque;
+
+/**
+ * This class recycles STPLP Frames so that receiving, forwarding and transmitting frames does not
+ * allocate. Every frame in the pool can hold the largest standard frame, a frame grows the first
+ * time it is filled with a larger extended frame and keeps that buffer when it is recycled.<br>
+ * A pool belongs to one Node and must only be used by the thread running that Node.
+ * @author William Fong
+ *
+ */
+public class FramePool {
+	//Default number of idle frames kept by a pool
+	public static final int DEFAULT_CAPACITY = 64;
+	private final ArrayDeque<STPLPFrame> freeFrames;
+	private final int capacity;
+
+	/**
+	 * Creates a pool with the default capacity.
+	 */
+	public FramePool() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a pool.
+	 * @param capacity The maximum number of idle frames kept for reuse.
+	 */
+	public FramePool(int capacity) {
+		this.freeFrames = new ArrayDeque<STPLPFrame>(capacity);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Takes a frame from the pool, allocating one if the pool is empty.
+	 * @return An empty frame owned by this pool.
+	 */
+	public STPLPFrame acquire() {
+		STPLPFrame frame = this.freeFrames.poll();
+		if (frame == null) {
+			frame = new STPLPFrame(this);
+		}
+		frame.free = false;
+		return frame;
+	}
+
+	/**
+	 * Returns a frame to the pool. Frames owned by another pool, shared frames, frames that
+	 * were not pooled and frames already released are ignored, so any frame may safely be released.<br>
+	 * The frame must not be used after it has been released.
+	 * @param frame The frame which is no longer needed.
+	 */
+	public void release(STPLPFrame frame) {
+		if (frame == null || frame.getPool() != this || frame.free || this.freeFrames.size() >= this.capacity) {
+			return;
+		}
+		frame.free = true;
+		this.freeFrames.push(frame);
+	}
+}
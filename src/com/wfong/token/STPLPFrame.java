@@ -1,17 +1,85 @@
 package com.wfong.token;
 
 import java.util.Arrays;
-import java.util.Random;
+import java.util.zip.CRC32C;
 
 /**
  * This class is for holding a frame value in a byte array. It contains methods to set and receive<br>
- * various control bytes from the frame as well as creating a frame from an input file.
+ * various control bytes from the frame as well as creating a frame from an input file.<br>
+ * The byte array may be longer than the frame, so that frames can be recycled by a {@link FramePool}.
+ * Tokens, Kill and Completion Signals are immutable shared instances.<br>
+ * Every frame starts with a Start Delimiter and carries a CRC-32C Frame Check Sequence over the
+ * fields that never change in flight (Frame Control through the data). The Access Control and
+ * Frame Status bytes are left out, since Nodes update them as the frame passes.<br>
+ * The Start Delimiter also gives the format version. Payloads larger than 255 bytes use the
+ * extended format, whose Data Size field is two bytes wide (most significant byte first) and
+ * is followed by the Sequence Number, so the data starts one byte later.<br>
+ * A token's Sequence Number carries the stamp of the Monitor that issued it, so the Monitor can
+ * tell the current token from a surplus one.
  * @author william
  *
  */
 public class STPLPFrame {
+	//First byte of every frame, used to find the next frame boundary after corruption
+	public static final byte START_DELIMITER = (byte) 0xa5;
+	//Number of bytes before the data (Start Delimiter, Access Control, Frame Control, Destination, Source, Data Size, Sequence Number)
+	public static final int HEADER_LENGTH = 8;
+	//Index of the Access Control byte
+	public static final int ACCESS_CONTROL_OFFSET = 1;
+	//Index of the Frame Control byte
+	public static final int FRAME_CONTROL_OFFSET = 2;
+	//Index of the Destination Address byte
+	public static final int DESTINATION_OFFSET = 3;
+	//Index of the Source Address byte
+	public static final int SOURCE_OFFSET = 4;
+	//Index of the Data Size byte
+	public static final int SIZE_OFFSET = 5;
+	//Index of the two byte Sequence Number of a standard frame (most significant byte first)
+	public static final int SEQUENCE_OFFSET = 6;
+	//First byte of every extended frame
+	public static final byte EXTENDED_DELIMITER = (byte) 0xa6;
+	//Number of bytes before the data of an extended frame
+	public static final int EXTENDED_HEADER_LENGTH = HEADER_LENGTH + 1;
+	//Largest payload of a standard frame
+	public static final int MAX_DATA_SIZE = 0xff;
+	//Largest payload of an extended frame
+	public static final int MAX_EXTENDED_DATA_SIZE = 0xffff;
+	//Sequence Numbers wrap around after this value
+	public static final int MAX_SEQUENCE_NUMBER = 0xffff;
+	//Number of bytes in the Frame Check Sequence following the data
+	public static final int CHECKSUM_LENGTH = 4;
+	//Number of bytes after the data (Frame Check Sequence, Frame Status)
+	public static final int TRAILER_LENGTH = CHECKSUM_LENGTH + 1;
+	//Largest standard frame
+	public static final int MAX_FRAME_LENGTH = MAX_DATA_SIZE + HEADER_LENGTH + TRAILER_LENGTH;
+	//Largest extended frame
+	public static final int MAX_EXTENDED_FRAME_LENGTH = MAX_EXTENDED_DATA_SIZE + EXTENDED_HEADER_LENGTH + TRAILER_LENGTH;
+	//Highest priority and reservation level carried in the Access Control byte
+	public static final int MAX_PRIORITY = 0x7;
+	//Shared control frames
+	//One token per combination of priority and reservation level
+	private static final STPLPFrame[] TOKENS = new STPLPFrame[(MAX_PRIORITY + 1) * (MAX_PRIORITY + 1)];
+	private static final STPLPFrame KILL_SIGNAL = controlFrame((byte) 0x0, (byte) 0x0, (byte) 0x4);
+	private static final STPLPFrame[] COMPLETED_SIGNALS = new STPLPFrame[256];
+	static {
+		for (int i = 0; i < COMPLETED_SIGNALS.length; i++) {
+			COMPLETED_SIGNALS[i] = controlFrame((byte) 0x0, (byte) i, (byte) 0x5);
+		}
+		for (int i = 0; i < TOKENS.length; i++) {
+			//Access Control: priority in bits 0-2, token bit 3, reservation in bits 5-7
+			TOKENS[i] = controlFrame((byte) (0x8 | (i & MAX_PRIORITY) | ((i >>> 3) << 5)), (byte) 0x0, (byte) 0x0);
+		}
+	}
 	//Byte Array for holding the Frame of n-Size.
 	private byte[] frameValue;
+	//Number of bytes of frameValue used by the frame
+	private int length;
+	//Shared frames must never be modified
+	private boolean immutable;
+	//The pool this frame is returned to once it is no longer needed, null if not pooled
+	private FramePool pool;
+	//Set while the frame sits idle in its pool
+	boolean free;
 
 	/**
 	 * Creates a frame from a byte array
@@ -19,6 +87,180 @@ public class STPLPFrame {
 	 */
 	public STPLPFrame(byte[] frameValue) {
 		this.frameValue = frameValue;
+		this.length = frameValue.length;
+	}
+	
+	/**
+	 * Creates an empty, pooled frame able to hold the largest standard frame.
+	 * @param pool The pool owning the frame.
+	 */
+	STPLPFrame(FramePool pool) {
+		this.frameValue = new byte[MAX_FRAME_LENGTH];
+		this.length = 0;
+		this.pool = pool;
+	}
+	
+	/**
+	 * Creates an immutable control frame carrying no data.
+	 */
+	private static STPLPFrame controlFrame(byte accessControl, byte sourceAddress, byte frameStatus) {
+		byte[] frameValue = new byte[HEADER_LENGTH + TRAILER_LENGTH];
+		frameValue[0] = START_DELIMITER;
+		frameValue[ACCESS_CONTROL_OFFSET] = accessControl;
+		frameValue[SOURCE_OFFSET] = sourceAddress;
+		frameValue[HEADER_LENGTH + CHECKSUM_LENGTH] = frameStatus;
+		STPLPFrame frame = new STPLPFrame(frameValue);
+		frame.updateChecksum();
+		frame.immutable = true;
+		return frame;
+	}
+	
+	/**
+	 * Copies a frame into this frame's buffer.
+	 * @param source The buffer holding the frame.
+	 * @param offset The index of the first byte of the frame.
+	 * @param frameLength The number of bytes in the frame.
+	 * @return This frame.
+	 */
+	public STPLPFrame setFrame(byte[] source, int offset, int frameLength) {
+		checkMutable();
+		ensureCapacity(frameLength);
+		System.arraycopy(source, offset, this.frameValue, 0, frameLength);
+		this.length = frameLength;
+		return this;
+	}
+	
+	/**
+	 * Returns the pool owning this frame.
+	 * @return The pool, or null if the frame is not pooled.
+	 */
+	FramePool getPool() {
+		return this.pool;
+	}
+	
+	/**
+	 * Returns true if this frame is a shared instance which must not be modified.
+	 * @return True if the frame is immutable.
+	 */
+	public boolean isImmutable() {
+		return this.immutable;
+	}
+	
+	/**
+	 * Throws if this frame is a shared instance.
+	 */
+	private void checkMutable() {
+		if (this.immutable) {
+			throw new UnsupportedOperationException("Shared control frames cannot be modified");
+		}
+	}
+	
+	/**
+	 * Makes sure the frame's buffer can hold a frame, replacing it if it is too small.
+	 */
+	private void ensureCapacity(int frameLength) {
+		if (this.frameValue.length < frameLength) {
+			this.frameValue = new byte[frameLength];
+		}
+	}
+	
+	/**
+	 * Returns true if a buffered frame uses the extended format.
+	 * @param buffer A buffer holding at least the Start Delimiter.
+	 * @param offset The index of the Start Delimiter.
+	 * @return True for an extended frame.
+	 */
+	public static boolean isExtended(byte[] buffer, int offset) {
+		return buffer[offset] == EXTENDED_DELIMITER;
+	}
+	
+	/**
+	 * Returns the header length of a buffered frame, which is also the offset of its data.
+	 * @param buffer A buffer holding at least the Start Delimiter.
+	 * @param offset The index of the Start Delimiter.
+	 * @return The number of bytes before the data.
+	 */
+	public static int headerLength(byte[] buffer, int offset) {
+		return isExtended(buffer, offset) ? EXTENDED_HEADER_LENGTH : HEADER_LENGTH;
+	}
+	
+	/**
+	 * Returns the header length a data frame carrying a payload of the given size uses.
+	 * @param dataSize The number of payload bytes.
+	 * @return The number of bytes before the data.
+	 */
+	public static int headerLength(int dataSize) {
+		return dataSize > MAX_DATA_SIZE ? EXTENDED_HEADER_LENGTH : HEADER_LENGTH;
+	}
+	
+	/**
+	 * Reads the Data Size of a buffered frame.
+	 * @param buffer A buffer holding at least {@link #HEADER_LENGTH} bytes of the frame.
+	 * @param offset The index of the Start Delimiter.
+	 * @return The number of data bytes in the frame.
+	 */
+	public static int dataSize(byte[] buffer, int offset) {
+		if (isExtended(buffer, offset)) {
+			return ((buffer[offset + SIZE_OFFSET] & 0xff) << 8) | (buffer[offset + SIZE_OFFSET + 1] & 0xff);
+		}
+		return buffer[offset + SIZE_OFFSET] & 0xff;
+	}
+	
+	/**
+	 * Computes the total length of a frame from its header.
+	 * @param buffer A buffer holding at least {@link #HEADER_LENGTH} bytes of the frame.
+	 * @param offset The index of the first header byte.
+	 * @return The number of bytes in the whole frame.
+	 */
+	public static int frameLength(byte[] buffer, int offset) {
+		return dataSize(buffer, offset) + headerLength(buffer, offset) + TRAILER_LENGTH;
+	}
+	
+	/**
+	 * Computes the Frame Check Sequence of a frame.
+	 * @param buffer A buffer holding the frame.
+	 * @param offset The index of the Start Delimiter.
+	 * @param dataEnd The index one past the last data byte.
+	 * @return The CRC-32C of the Frame Control byte through the last data byte.
+	 */
+	private static int checksum(byte[] buffer, int offset, int dataEnd) {
+		CRC32C crc = new CRC32C();
+		crc.update(buffer, offset + FRAME_CONTROL_OFFSET, dataEnd - offset - FRAME_CONTROL_OFFSET);
+		return (int) crc.getValue();
+	}
+	
+	/**
+	 * Checks the Frame Check Sequence of a buffered frame.
+	 * @param buffer A buffer holding the whole frame.
+	 * @param offset The index of the Start Delimiter.
+	 * @return True if the frame arrived intact.
+	 */
+	public static boolean hasValidChecksum(byte[] buffer, int offset) {
+		int index = offset + headerLength(buffer, offset) + dataSize(buffer, offset);
+		int stored = ((buffer[index] & 0xff) << 24) | ((buffer[index + 1] & 0xff) << 16) |
+				((buffer[index + 2] & 0xff) << 8) | (buffer[index + 3] & 0xff);
+		return stored == checksum(buffer, offset, index);
+	}
+	
+	/**
+	 * Checks this frame's Frame Check Sequence.
+	 * @return True if the frame is intact.
+	 */
+	public boolean hasValidChecksum() {
+		return this.length == frameLength(this.frameValue, 0) && hasValidChecksum(this.frameValue, 0);
+	}
+	
+	/**
+	 * Recomputes the Frame Check Sequence, which must be done once the header and data are in place.
+	 */
+	public void updateChecksum() {
+		checkMutable();
+		int index = getDataOffset() + getDataSize();
+		int crc = checksum(this.frameValue, 0, index);
+		this.frameValue[index] = (byte) (crc >>> 24);
+		this.frameValue[index + 1] = (byte) (crc >>> 16);
+		this.frameValue[index + 2] = (byte) (crc >>> 8);
+		this.frameValue[index + 3] = (byte) crc;
 	}
 	
 	/**
@@ -28,114 +270,202 @@ public class STPLPFrame {
 	 * @param sourceAddress The source address.
 	 */
 	public STPLPFrame(String frameString, byte sourceAddress) {
+		this.frameValue = new byte[MAX_FRAME_LENGTH];
+		setFrame(frameString, sourceAddress);
+	}
+	
+	/**
+	 * Fills this frame using a formatted string from an input file.
+	 * @param frameString The string containing formatted data for constructing a STPLP Frame.
+	 * @param sourceAddress The source address.
+	 * @return This frame.
+	 */
+	public STPLPFrame setFrame(String frameString, byte sourceAddress) {
+		checkMutable();
 		byte accessControl;
 		byte frameControl;
 		byte destinationAddress;
 		byte dataSize;
-		byte[] data;
 		byte frameStatus;
 		//Begin extraction of data from file string
 		String[] strTok = frameString.split(",");
 		destinationAddress = (byte) (Integer.parseInt(strTok[0]) & 0xff);
 		dataSize = (byte) (Integer.parseInt(strTok[1]) & 0xff);
-		data = strTok[2].getBytes();
+		String data = strTok[2];
 		//Set other data fields
-		accessControl = 0; //TODO Implement various extra credit schemes
+		accessControl = 0; //Lowest priority
 		frameControl = 1; //Frame is NOT a token
 		frameStatus = 0; //Frame is newly constructed
 		//Construct new Frame Value
 		//Any Logical AND with 0xff is to Compensate for Java's naughty signed bit habit.
-		this.frameValue = new byte[(dataSize & 0xff) + 6];
-		this.frameValue[0] = accessControl;
-		this.frameValue[1] = frameControl;
-		this.frameValue[2] = destinationAddress;
-		this.frameValue[3] = sourceAddress;
-		this.frameValue[4] = dataSize;
-		//Copy Data
+		this.length = (dataSize & 0xff) + HEADER_LENGTH + TRAILER_LENGTH;
+		this.frameValue[0] = START_DELIMITER;
+		this.frameValue[ACCESS_CONTROL_OFFSET] = accessControl;
+		this.frameValue[FRAME_CONTROL_OFFSET] = frameControl;
+		this.frameValue[DESTINATION_OFFSET] = destinationAddress;
+		this.frameValue[SOURCE_OFFSET] = sourceAddress;
+		this.frameValue[SIZE_OFFSET] = dataSize;
+		this.frameValue[SEQUENCE_OFFSET] = 0; //Sequence Number is assigned by the sender
+		this.frameValue[SEQUENCE_OFFSET + 1] = 0;
+		//Copy Data (input files are ASCII)
 		for (int i = 0; i < (dataSize & 0xff); i++) {
-			this.frameValue[i + 5] = data[i];
+			this.frameValue[i + HEADER_LENGTH] = (byte) data.charAt(i);
 		}
-		this.frameValue[(dataSize & 0xff) + 5] = frameStatus;
-	}
-	
-	/**
-	 * This method generates 1% of the time a garbled frame by omission of a byte
-	 * @return A garbled frame (1%)
-	 */
-	public STPLPFrame garbleFrame() {
-		Random rand = new Random();
-		byte[] garbledFrame;
-		int omit;
-		int i = 0;
-		if (rand.nextInt(100) < 0) {
-			System.out.println("Garbling Frame!");
-			garbledFrame = new byte[this.frameValue.length - 1];
-			omit = rand.nextInt(5);
-			for (byte b: this.frameValue) {
-				if (i == omit)
-					continue;
-				garbledFrame[i] =  b;
-				i++;
-			}
-			return new STPLPFrame(garbledFrame);
+		this.frameValue[this.length - 1] = frameStatus;
+		updateChecksum();
+		return this;
+	}
+	
+	/**
+	 * Writes the header and trailer of a new data frame, choosing the extended format when the
+	 * payload does not fit the standard one. The payload is then copied to {@link #getDataOffset()}
+	 * in this frame's buffer, followed by a call to {@link #updateChecksum()}.
+	 * @param destinationAddress The destination address.
+	 * @param sourceAddress The source address.
+	 * @param dataSize The number of payload bytes (at most {@link #MAX_EXTENDED_DATA_SIZE}).
+	 * @return This frame.
+	 */
+	public STPLPFrame setDataHeader(byte destinationAddress, byte sourceAddress, int dataSize) {
+		checkMutable();
+		int headerLength = headerLength(dataSize);
+		this.length = dataSize + headerLength + TRAILER_LENGTH;
+		ensureCapacity(this.length);
+		this.frameValue[ACCESS_CONTROL_OFFSET] = 0;
+		this.frameValue[FRAME_CONTROL_OFFSET] = 1; //Frame is NOT a token
+		this.frameValue[DESTINATION_OFFSET] = destinationAddress;
+		this.frameValue[SOURCE_OFFSET] = sourceAddress;
+		if (headerLength == EXTENDED_HEADER_LENGTH) {
+			this.frameValue[0] = EXTENDED_DELIMITER;
+			this.frameValue[SIZE_OFFSET] = (byte) (dataSize >>> 8);
+			this.frameValue[SIZE_OFFSET + 1] = (byte) dataSize;
+		} else {
+			this.frameValue[0] = START_DELIMITER;
+			this.frameValue[SIZE_OFFSET] = (byte) dataSize;
 		}
+		this.frameValue[headerLength - 2] = 0; //Sequence Number is assigned by the sender
+		this.frameValue[headerLength - 1] = 0;
+		this.frameValue[this.length - 1] = 0; //Frame is newly constructed
+		return this;
+	}
+	
+	/**
+	 * Fills this frame with a copy of a token stamped by the Monitor.
+	 * @param token The token whose priority and reservation level are kept.
+	 * @param stamp The stamp of the Monitor, carried in the Sequence Number field.
+	 * @return This frame.
+	 */
+	public STPLPFrame setToken(STPLPFrame token, int stamp) {
+		setFrame(token.frameValue, 0, token.length);
+		setSequenceNumber(stamp);
 		return this;
 	}
 	
+	/**
+	 * Fills this frame with a token carrying the receive credits of the Nodes as its data, one
+	 * byte per Node indexed by address.
+	 * @param token The token whose priority and reservation level are kept.
+	 * @param credits The receive credits.
+	 * @param count The number of entries to carry (at most {@link #MAX_DATA_SIZE}).
+	 * @return This frame.
+	 */
+	public STPLPFrame setCreditToken(STPLPFrame token, byte[] credits, int count) {
+		checkMutable();
+		this.length = count + HEADER_LENGTH + TRAILER_LENGTH;
+		ensureCapacity(this.length);
+		this.frameValue[0] = START_DELIMITER;
+		this.frameValue[ACCESS_CONTROL_OFFSET] = token.frameValue[ACCESS_CONTROL_OFFSET];
+		this.frameValue[FRAME_CONTROL_OFFSET] = 0;
+		this.frameValue[DESTINATION_OFFSET] = 0;
+		this.frameValue[SOURCE_OFFSET] = 0;
+		this.frameValue[SIZE_OFFSET] = (byte) count;
+		this.frameValue[SEQUENCE_OFFSET] = 0;
+		this.frameValue[SEQUENCE_OFFSET + 1] = 0;
+		System.arraycopy(credits, 0, this.frameValue, HEADER_LENGTH, count);
+		this.frameValue[this.length - 1] = 0;
+		updateChecksum();
+		return this;
+	}
+	
+	/**
+	 * Fills this frame with a new data frame carrying a binary payload.
+	 * @param destinationAddress The destination address.
+	 * @param sourceAddress The source address.
+	 * @param data The buffer holding the payload.
+	 * @param offset The index of the first payload byte.
+	 * @param dataSize The number of payload bytes (at most {@link #MAX_EXTENDED_DATA_SIZE}).
+	 * @return This frame.
+	 */
+	public STPLPFrame setData(byte destinationAddress, byte sourceAddress, byte[] data, int offset, int dataSize) {
+		setDataHeader(destinationAddress, sourceAddress, dataSize);
+		System.arraycopy(data, offset, this.frameValue, getDataOffset(), dataSize);
+		updateChecksum();
+		return this;
+	}
+	
+	/**
+	 * Copies this frame into another one without one of its bytes, as if the byte had been lost
+	 * on the wire.
+	 * @param omit The index of the omitted byte.
+	 * @param target The frame receiving the garbled copy.
+	 * @return The target frame.
+	 */
+	public STPLPFrame garbleFrame(int omit, STPLPFrame target) {
+		target.setFrame(this.frameValue, 0, this.length);
+		System.arraycopy(target.frameValue, omit + 1, target.frameValue, omit, this.length - omit - 1);
+		target.length--;
+		return target;
+	}
+	
 	/**
 	 * Generates a Token.
-	 * @return A token.
+	 * @return The shared, immutable token.
 	 */
 	public static STPLPFrame generateToken() {
-		byte[] frameValue = new byte[6];
-		frameValue[0] = 0x8; //Set token bit
-		frameValue[1] = 0x0;
-		frameValue[2] = 0x0;
-		frameValue[3] = 0x0;
-		frameValue[4] = 0x0;
-		frameValue[5] = 0x0;
-		return new STPLPFrame(frameValue);
+		return TOKENS[0];
+	}
+	
+	/**
+	 * Generates a Token carrying a priority and a reservation level.
+	 * @param priority The lowest priority a Node may transmit with once it captures the token (0-7).
+	 * @param reservationLevel The highest priority requested by a Node the token passed (0-7).
+	 * @return The shared, immutable token.
+	 */
+	public static STPLPFrame generateToken(int priority, int reservationLevel) {
+		return TOKENS[(priority & MAX_PRIORITY) | ((reservationLevel & MAX_PRIORITY) << 3)];
 	}
 	
 	/**
 	 * Generates a Completion Signal.
 	 * @param sourceAddress The source of the signal.
-	 * @return A new STPLP Frame.
+	 * @return The shared, immutable Completion Signal of that source.
 	 */
 	public static STPLPFrame generateCompletedSig(byte sourceAddress) {
-		byte[] frameValue = new byte[6];
-		frameValue[0] = 0x0;
-		frameValue[1] = 0x0;
-		frameValue[2] = 0x0;
-		frameValue[3] = sourceAddress;
-		frameValue[4] = 0x0;
-		frameValue[5] = 0x5; //Generate Completed Signal
-		return new STPLPFrame(frameValue);
+		return COMPLETED_SIGNALS[sourceAddress & 0xff];
 	}
 	
 	/**
 	 * Generates a Kill Signal.
-	 * @return A kill signal for the network.
+	 * @return The shared, immutable kill signal for the network.
 	 */
 	public static STPLPFrame generateKillSig() {
-		byte[] frameValue = new byte[6];
-		frameValue[0] = 0x0;
-		frameValue[1] = 0x0;
-		frameValue[2] = 0x0;
-		frameValue[3] = 0x0;
-		frameValue[4] = 0x0;
-		frameValue[5] = 0x4; //Generate kill signal
-		return new STPLPFrame(frameValue);
+		return KILL_SIGNAL;
 	}
 	
 	/**
-	 * Returns the whole frame in a char byte array.
+	 * Returns the array backing the frame, the frame occupies its first {@link #getFrameLength()} bytes.
 	 * @return The Frame.
 	 */
 	public byte[] getFrame () {
 		return this.frameValue;
 	}
 	
+	/**
+	 * Returns the number of bytes in the frame.
+	 * @return The frame length.
+	 */
+	public int getFrameLength() {
+		return this.length;
+	}
 	/**
 	 * This method creates a string containing the information within the frame.
 	 */
@@ -153,23 +483,32 @@ public class STPLPFrame {
 	 * This method is for printing the header of the frame.
 	 */
 	public void printHeader() {
-		System.out.println("Byte[0]: " + (this.frameValue[0] & 0xff) +
-						   ", Byte[1]: " + (this.frameValue[1] & 0xff) +
-						   ", Byte[2]: " + (this.frameValue[2] & 0xff) +
-						   ", Byte[3]: " + (this.frameValue[0] & 0xff) +
-						   ", Byte[4]: " + (this.frameValue[0] & 0xff));
+		System.out.println("AC: " + (this.frameValue[ACCESS_CONTROL_OFFSET] & 0xff) +
+						   ", FC: " + (this.frameValue[FRAME_CONTROL_OFFSET] & 0xff) +
+						   ", DA: " + (this.frameValue[DESTINATION_OFFSET] & 0xff) +
+						   ", SA: " + (this.frameValue[SOURCE_OFFSET] & 0xff) +
+						   ", Size: " + getDataSize() +
+						   ", Sequence: " + getSequenceNumber());
 	}
 	
 	//Access Control Methods
 	/**
-	 * Returns the frame priority.
-	 * TODO Implement Priority in Node Network.
+	 * Returns the frame priority. For a token this is the lowest priority a Node may transmit with.
 	 * @return The Frame priority.
 	 */
 	public int getFramePriority() {
 		byte bitMask = 0x7;
 		//No need to bit shift
-		return frameValue[0] & bitMask;
+		return frameValue[ACCESS_CONTROL_OFFSET] & bitMask;
+	}
+	
+	/**
+	 * Sets the frame priority.
+	 * @param priority The priority (0-7).
+	 */
+	public void setFramePriority(int priority) {
+		checkMutable();
+		this.frameValue[ACCESS_CONTROL_OFFSET] = (byte) ((this.frameValue[ACCESS_CONTROL_OFFSET] & ~MAX_PRIORITY) | (priority & MAX_PRIORITY));
 	}
 
 	/**
@@ -189,7 +528,7 @@ public class STPLPFrame {
 	 */
 	private boolean tokenBit() {
 		byte bitMask = 0x8;
-		byte tmp = (byte) (frameValue[0] & bitMask);
+		byte tmp = (byte) (frameValue[ACCESS_CONTROL_OFFSET] & bitMask);
 		//If token bit is flipped, value of tmp will be 8
 		if (tmp == 0x8)
 			return true;
@@ -202,7 +541,7 @@ public class STPLPFrame {
 	 */
 	public boolean monitorBit() {
 		byte bitMask = 0x10;
-		byte tmp = (byte) (frameValue[0] & bitMask);
+		byte tmp = (byte) (frameValue[ACCESS_CONTROL_OFFSET] & bitMask);
 		//If monitor bit is flipped, value will be 16, 0 if otherwise
 		if (tmp == 0x10)
 			return true;
@@ -213,24 +552,47 @@ public class STPLPFrame {
 	 * Sets the Monitor Bit to be 1
 	 */
 	public void setMonitorBit() {
-		this.frameValue[0] = (byte) (this.frameValue[0] | 0x10);
+		checkMutable();
+		this.frameValue[ACCESS_CONTROL_OFFSET] = (byte) (this.frameValue[ACCESS_CONTROL_OFFSET] | 0x10);
 	}
 	
 	/**
 	 * Sets the Monitor Bit to be 0
 	 */
 	public void zeroMonitorBit() {
-		this.frameValue[0] = (byte) (this.frameValue[0] & 0x0);
+		checkMutable();
+		this.frameValue[ACCESS_CONTROL_OFFSET] = (byte) (this.frameValue[ACCESS_CONTROL_OFFSET] & ~0x10);
 	}
 	
 	/**
-	 * This method returns the Reservation Level of the Frame.
-	 * TODO Implement for Extra Credit.
-	 * @return
+	 * This method returns the Reservation Level of the Frame, the highest priority requested by a
+	 * Node the Frame passed.
+	 * @return The Reservation Level (0-7).
 	 */
 	public int getReservationLevel() {
-		byte bitMask = (byte) 0xe0;
-		return this.frameValue[1] & bitMask;
+		return (this.frameValue[ACCESS_CONTROL_OFFSET] & 0xe0) >>> 5;
+	}
+	
+	/**
+	 * Sets the Reservation Level of the Frame.
+	 * @param reservationLevel The Reservation Level (0-7).
+	 */
+	public void setReservationLevel(int reservationLevel) {
+		checkMutable();
+		this.frameValue[ACCESS_CONTROL_OFFSET] = (byte) ((this.frameValue[ACCESS_CONTROL_OFFSET] & 0x1f) | ((reservationLevel & MAX_PRIORITY) << 5));
+	}
+	
+	/**
+	 * Raises the Reservation Level in the header of a buffered Frame, leaving a higher one in place.
+	 * @param buffer A buffer holding the Frame header.
+	 * @param offset The index of the Start Delimiter.
+	 * @param reservationLevel The requested Reservation Level (0-7).
+	 */
+	public static void raiseReservationLevel(byte[] buffer, int offset, int reservationLevel) {
+		int accessControl = buffer[offset + ACCESS_CONTROL_OFFSET] & 0xff;
+		if (reservationLevel > (accessControl >>> 5)) {
+			buffer[offset + ACCESS_CONTROL_OFFSET] = (byte) ((accessControl & 0x1f) | ((reservationLevel & MAX_PRIORITY) << 5));
+		}
 	}
 	
 	/**
@@ -239,7 +601,7 @@ public class STPLPFrame {
 	 * Returns 1 if Frame is not a Token
 	 */
 	public int getFrameControl() {
-		return (this.frameValue[1] & 0xff);
+		return (this.frameValue[FRAME_CONTROL_OFFSET] & 0xff);
 	}
 	
 	/**
@@ -247,7 +609,7 @@ public class STPLPFrame {
 	 * @return The Destination Address Byte.
 	 */
 	public int getDestinationAddress() {
-		return (this.frameValue[2] & 0xff);
+		return (this.frameValue[DESTINATION_OFFSET] & 0xff);
 	}
 	
 	/**
@@ -255,7 +617,7 @@ public class STPLPFrame {
 	 * @return The Source Address Byte.
 	 */
 	public int getSourceAddress() {
-		return (this.frameValue[3] & 0xff);
+		return (this.frameValue[SOURCE_OFFSET] & 0xff);
 	}
 	
 	/**
@@ -263,43 +625,54 @@ public class STPLPFrame {
 	 * @return The Data Size (in Bytes)
 	 */
 	public int getDataSize() {
-		return (this.frameValue[4] & 0xff);
+		return dataSize(this.frameValue, 0);
+	}
+	
+	/**
+	 * This method returns the Sequence Number the source assigned to the Frame.
+	 * @return The Sequence Number (0 to 65535).
+	 */
+	public int getSequenceNumber() {
+		int index = getDataOffset() - 2;
+		return ((this.frameValue[index] & 0xff) << 8) | (this.frameValue[index + 1] & 0xff);
+	}
+	
+	/**
+	 * Sets the Sequence Number of the Frame and recomputes the Frame Check Sequence.
+	 * @param sequenceNumber The Sequence Number, only the low 16 bits are kept.
+	 */
+	public void setSequenceNumber(int sequenceNumber) {
+		checkMutable();
+		int index = getDataOffset() - 2;
+		this.frameValue[index] = (byte) (sequenceNumber >>> 8);
+		this.frameValue[index + 1] = (byte) sequenceNumber;
+		updateChecksum();
 	}
 	
 	/**
 	 * Returns Binary Data of length of the specified Data Size.
+	 * This copies the data, use {@link #getFrame()} and {@link #getDataOffset()} to read it in place.
 	 * @return A byte array containing Data.
 	 */
 	public byte[] getBinaryData() {
-		byte[] data = new byte[getDataSize()];
-		for (int i = 0; i < getDataSize(); i++) {
-			data[i] = this.frameValue[i + 5];
-		}
-		return data;
+		int dataOffset = getDataOffset();
+		return Arrays.copyOfRange(this.frameValue, dataOffset, dataOffset + getDataSize());
 	}
 	
 	/**
-	 * This method returns a string representation of the Data within the Frame.
-	 * @return A String representation of the Frame Data
+	 * Returns the index of the first data byte in the array returned by {@link #getFrame()}.
+	 * @return The data offset.
 	 */
-	public String dataToString() {
-		return new String(getBinaryData());
+	public int getDataOffset() {
+		return headerLength(this.frameValue, 0);
 	}
 	
 	/**
-	 * <p>This method sets the Frame Status byte.</p>
-	 * <p>There's a 20% chance the Frame Status will be set so that the Frame will be <i>rejected</i>.
-	 * The other remaining 80% will result in the Frame Status being set so the Frame is <i>accepted</i>.</p>
+	 * This method returns a string representation of the Data within the Frame.
+	 * @return A String representation of the Frame Data
 	 */
-	public void generateFrameStatus() {
-		int sizeOfFrame = this.frameValue.length;
-		Random i = new Random();
-		if(i.nextInt(100) < 20) {
-			//Frame Rejected
-			this.frameValue[sizeOfFrame - 1] = 0x3;
-			return;
-		}
-		this.frameValue[sizeOfFrame - 1] = 0x2;
+	public String dataToString() {
+		return new String(this.frameValue, getDataOffset(), getDataSize());
 	}
 	
 	/**
@@ -307,7 +680,8 @@ public class STPLPFrame {
 	 * @param val
 	 */
 	public void setFrameStatus(byte val) {
-		int sizeOfFrame = this.frameValue.length;
+		checkMutable();
+		int sizeOfFrame = this.length;
 		this.frameValue[sizeOfFrame - 1] = val;
 	}
 	
@@ -319,18 +693,25 @@ public class STPLPFrame {
 	 * Return 4 means a Node has finished all transmissions
 	 */
 	public byte getFrameStatus() {
-		int sizeOfFrame = this.frameValue.length;
+		int sizeOfFrame = this.length;
 		return this.frameValue[sizeOfFrame - 1];
 	}
 	
 	/**
 	 * This method overrides the object equal method to be used in STPLP to STPLP comparisons.
+	 * Two Frames are equal when they have the same kind, source and Sequence Number, so copies
+	 * of a Frame match while distinct Frames with identical data do not.
 	 * @param obj The STPLP frame to compare to.
 	 */
 	@Override
 	public boolean equals(Object obj) {
+		if (!(obj instanceof STPLPFrame)) {
+			return false;
+		}
 		STPLPFrame frame = (STPLPFrame) obj;
-		return Arrays.equals(frame.getBinaryData(), this.getBinaryData());
+		return frame.getFrameControl() == this.getFrameControl() &&
+				frame.getSourceAddress() == this.getSourceAddress() &&
+				frame.getSequenceNumber() == this.getSequenceNumber();
 	}
 	
 	/**
@@ -338,7 +719,6 @@ public class STPLPFrame {
 	 */
 	@Override
 	public int hashCode() {
-		System.out.println("Hash value asked of frame");
-		return this.getBinaryData().hashCode();
+		return (getSourceAddress() << 16) | getSequenceNumber();
 	}
 }
@@ -0,0 +1,72 @@
+package com.wfong.tokenRing;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * This class writes the input files of a ring, like Project_2_GenerateInput.py: every Node gets
+ * 1 to 1000 records "destination,size,data" with a payload of 1 to 254 upper case letters for
+ * another Node.<br>
+ * A seeded generator always writes the same files.
+ * @author William Fong
+ *
+ */
+public class InputGenerator {
+	//Most records written for one Node
+	public static final int MAX_ENTRIES = 1000;
+	//Largest payload written
+	public static final int MAX_SIZE = 254;
+
+	/**
+	 * Writes "input-file-n" for every Node n of a ring.
+	 * @param directory The directory the files are written to.
+	 * @param numberOfNodes The number of Relay Nodes (2-254).
+	 * @param random The random number generator drawing the records.
+	 * @throws IOException If a file could not be written.
+	 */
+	public static void generate(Path directory, int numberOfNodes, Random random) throws IOException {
+		if (numberOfNodes < 2 || numberOfNodes > 254) {
+			throw new IllegalArgumentException("You must have at least 2 nodes and no more than 254 nodes in your token ring.");
+		}
+		Files.createDirectories(directory);
+		for (int node = 1; node <= numberOfNodes; node++) {
+			try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(directory.resolve("input-file-" + node)))) {
+				int entries = 1 + random.nextInt(MAX_ENTRIES);
+				for (int entry = 0; entry < entries; entry++) {
+					//Any Node but the source
+					int destination = 1 + random.nextInt(numberOfNodes - 1);
+					if (destination >= node) {
+						destination++;
+					}
+					int size = 1 + random.nextInt(MAX_SIZE);
+					file.write((destination + "," + size + ",").getBytes());
+					for (int i = 0; i < size; i++) {
+						file.write('A' + random.nextInt(26));
+					}
+					file.write('\n');
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the input files of a ring to the working directory.
+	 * @param args The number of Nodes (default 5) and optionally a seed.
+	 */
+	public static void main(String[] args) {
+		int numberOfNodes = args.length > 0 ? Integer.valueOf(args[0]) : 5;
+		Random random = args.length > 1 ? new Random(Long.valueOf(args[1])) : new Random();
+		try {
+			generate(Paths.get(""), numberOfNodes, random);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		} catch (IOException e) {
+			System.err.println("Could not write the input files: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,495 @@
+package com.wfong.tokenRing;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+
+import com.wfong.fault.BernoulliFaultModel;
+import com.wfong.fault.Fault;
+import com.wfong.fault.FaultModel;
+import com.wfong.fault.GilbertElliottFaultModel;
+import com.wfong.io.Durability;
+import com.wfong.nodes.RelayNode;
+import com.wfong.nodes.ThtMode;
+import com.wfong.simulation.Simulator;
+import com.wfong.transport.EmulatedLinkTransport;
+import com.wfong.transport.InProcessTransport;
+import com.wfong.transport.LinkProfile;
+import com.wfong.transport.SelectorTransport;
+import com.wfong.transport.TcpTransport;
+import com.wfong.transport.Transport;
+import com.wfong.transport.TransportType;
+import com.wfong.transport.WaitStrategy;
+
+/**
+ * This class holds the settings shared by every Node of a ring.
+ * @author William Fong
+ *
+ */
+public class RingConfiguration {
+	private int globalTHT;
+	private int globalTimeOut;
+	private TransportType transportType;
+	private WaitStrategy waitStrategy;
+	private int bufferCapacity;
+	private ThreadMode threadMode;
+	private int eventLoops;
+	private Durability durability;
+	private boolean earlyTokenRelease;
+	private boolean cutThrough;
+	private int sendWindow;
+	private boolean creditFlowControl;
+	private long byteBudget;
+	private int targetRotation;
+	private ThtMode thtMode;
+	private boolean nodeReport;
+	private boolean adaptiveTimeOut;
+	private long seed;
+	private int syntheticFrames;
+	private long bitRate;
+	private long propagationDelay;
+	private Path directory;
+	//Rate of each fault in percent, indexed by ordinal
+	private double[] faultRates;
+	//Gilbert-Elliott burst parameters in percent, no bursts while burstStart is 0
+	private double burstStart;
+	private double burstEnd;
+	private double burstLoss;
+	//Cable emulated between every Node and its downstream neighbor, null for none
+	private LinkProfile linkProfile;
+	//Cables differing from linkProfile, by the ID of the upstream Node
+	private Map<Integer, LinkProfile> linkProfiles;
+
+	/**
+	 * Creates the default configuration: a THT of 150, a time out multiplier of 10 and TCP sockets.
+	 */
+	public RingConfiguration() {
+		this(150, 10);
+	}
+
+	/**
+	 * Creates a configuration using TCP sockets.
+	 * @param globalTHT The THT for the network.
+	 * @param globalTimeOut The time out multiplier for the network.
+	 */
+	public RingConfiguration(int globalTHT, int globalTimeOut) {
+		this.globalTHT = globalTHT;
+		this.globalTimeOut = globalTimeOut;
+		this.transportType = TransportType.TCP;
+		this.waitStrategy = WaitStrategy.PARK;
+		this.bufferCapacity = InProcessTransport.DEFAULT_CAPACITY;
+		this.threadMode = ThreadMode.PLATFORM;
+		this.eventLoops = 1;
+		this.durability = Durability.ON_SHUTDOWN;
+		this.earlyTokenRelease = true;
+		this.cutThrough = true;
+		this.sendWindow = RelayNode.DEFAULT_SEND_WINDOW;
+		this.creditFlowControl = false;
+		this.byteBudget = RelayNode.DEFAULT_BYTE_BUDGET;
+		this.targetRotation = 0;
+		this.thtMode = ThtMode.BYTES;
+		this.nodeReport = false;
+		this.adaptiveTimeOut = true;
+		this.seed = System.nanoTime();
+		this.syntheticFrames = 0;
+		this.bitRate = Simulator.DEFAULT_BIT_RATE;
+		this.propagationDelay = Simulator.DEFAULT_PROPAGATION_DELAY;
+		this.directory = Paths.get("");
+		this.faultRates = Fault.defaultRates();
+		this.burstStart = 0;
+		this.burstEnd = 0;
+		this.burstLoss = 0;
+		this.linkProfile = null;
+		this.linkProfiles = new HashMap<Integer, LinkProfile>();
+	}
+
+	/**
+	 * Creates a new transport of the configured type.<br>
+	 * The event loop engine always uses non-blocking channels. In-process Nodes on virtual threads
+	 * never spin, see {@link #getEffectiveWaitStrategy()}.
+	 * @return A transport for one Node.
+	 */
+	public Transport newTransport() {
+		if (this.threadMode == ThreadMode.EVENT_LOOP) {
+			return new SelectorTransport();
+		}
+		switch (this.transportType) {
+		case IN_PROCESS:
+			return new InProcessTransport(this.bufferCapacity, getEffectiveWaitStrategy());
+		case TCP:
+		default:
+			return new TcpTransport();
+		}
+	}
+
+	/**
+	 * Creates the transport of one Node, wrapped in an emulated link if a cable is configured for
+	 * the Node's output. Links are only emulated for Nodes with a thread of their own.
+	 * @param nodeID The ID of the Node.
+	 * @return A transport for the Node.
+	 */
+	public Transport newTransport(int nodeID) {
+		Transport transport = newTransport();
+		LinkProfile profile = getLinkProfile(nodeID);
+		if (profile == null || this.threadMode == ThreadMode.EVENT_LOOP) {
+			return transport;
+		}
+		final String name = "Link " + nodeID;
+		final ThreadMode threadMode = this.threadMode;
+		ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = threadMode.newThread(task, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		//A spinning virtual thread would keep its carrier from the Nodes
+		return new EmulatedLinkTransport(transport, profile, this.seed + nodeID, name, threadFactory,
+				threadMode != ThreadMode.VIRTUAL);
+	}
+
+	/**
+	 * Creates the fault model of one Node: bursts of channel faults if burst loss is configured,
+	 * independent faults otherwise.
+	 * @param seed The seed of the Node's generator.
+	 * @return A fault model for one Node.
+	 */
+	public FaultModel newFaultModel(long seed) {
+		if (this.burstStart > 0) {
+			return new GilbertElliottFaultModel(this.faultRates, this.burstStart, this.burstEnd, this.burstLoss, seed);
+		}
+		return new BernoulliFaultModel(this.faultRates, seed);
+	}
+
+	public int getGlobalTHT() {
+		return this.globalTHT;
+	}
+
+	public void setGlobalTHT(int globalTHT) {
+		this.globalTHT = globalTHT;
+	}
+
+	public int getGlobalTimeOut() {
+		return this.globalTimeOut;
+	}
+
+	public void setGlobalTimeOut(int globalTimeOut) {
+		this.globalTimeOut = globalTimeOut;
+	}
+
+	public TransportType getTransportType() {
+		return this.transportType;
+	}
+
+	public void setTransportType(TransportType transportType) {
+		this.transportType = transportType;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return this.waitStrategy;
+	}
+
+	/**
+	 * Returns the wait strategy in-process Nodes actually use. A spinning virtual thread never
+	 * gives up its carrier, so with more Nodes than carriers the token holder may never be
+	 * scheduled. Virtual threads park instead of spinning.
+	 * @return The wait strategy of the ring's in-process transports.
+	 */
+	public WaitStrategy getEffectiveWaitStrategy() {
+		if (this.threadMode == ThreadMode.VIRTUAL && this.waitStrategy == WaitStrategy.SPIN) {
+			return WaitStrategy.PARK;
+		}
+		return this.waitStrategy;
+	}
+
+	/**
+	 * Sets how Nodes wait on in-process ring buffers.
+	 * @param waitStrategy The wait strategy.
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	public int getBufferCapacity() {
+		return this.bufferCapacity;
+	}
+
+	/**
+	 * Sets the capacity of each in-process ring buffer.
+	 * @param bufferCapacity The capacity in bytes.
+	 */
+	public void setBufferCapacity(int bufferCapacity) {
+		this.bufferCapacity = bufferCapacity;
+	}
+
+	public ThreadMode getThreadMode() {
+		return this.threadMode;
+	}
+
+	/**
+	 * Sets the kind of thread each Node runs on.
+	 * @param threadMode The thread mode.
+	 */
+	public void setThreadMode(ThreadMode threadMode) {
+		this.threadMode = threadMode;
+	}
+
+	public int getEventLoops() {
+		return this.eventLoops;
+	}
+
+	/**
+	 * Sets the number of selector threads used by the event loop engine.
+	 * @param eventLoops The number of event loops.
+	 */
+	public void setEventLoops(int eventLoops) {
+		this.eventLoops = eventLoops;
+	}
+
+	public Durability getDurability() {
+		return this.durability;
+	}
+
+	/**
+	 * Sets when the Nodes' output files are forced to disk.
+	 * @param durability The durability mode.
+	 */
+	public void setDurability(Durability durability) {
+		this.durability = durability;
+	}
+
+	public boolean isEarlyTokenRelease() {
+		return this.earlyTokenRelease;
+	}
+
+	/**
+	 * Selects Early Token Release or standard IEEE 802.5 token release for every Node.
+	 * @param earlyTokenRelease True to release the token right behind the last Frame.
+	 */
+	public void setEarlyTokenRelease(boolean earlyTokenRelease) {
+		this.earlyTokenRelease = earlyTokenRelease;
+	}
+
+	public boolean isCutThrough() {
+		return this.cutThrough;
+	}
+
+	/**
+	 * Selects cut-through or store-and-forward forwarding of Frames passing through a Node.
+	 * @param cutThrough True to forward a passing Frame from its header alone.
+	 */
+	public void setCutThrough(boolean cutThrough) {
+		this.cutThrough = cutThrough;
+	}
+
+	public boolean isCreditFlowControl() {
+		return this.creditFlowControl;
+	}
+
+	/**
+	 * Selects credit based flow control or random rejects at the receivers.
+	 * @param creditFlowControl True for receivers to advertise their free room on the token.
+	 */
+	public void setCreditFlowControl(boolean creditFlowControl) {
+		this.creditFlowControl = creditFlowControl;
+	}
+
+	public int getSendWindow() {
+		return this.sendWindow;
+	}
+
+	/**
+	 * Sets the number of Frames each Node may have outstanding on the ring.
+	 * @param sendWindow The send window in Frames.
+	 */
+	public void setSendWindow(int sendWindow) {
+		this.sendWindow = sendWindow;
+	}
+
+	public long getByteBudget() {
+		return this.byteBudget;
+	}
+
+	/**
+	 * Sets the number of data bytes each Node may hold in queued and outstanding Frames.
+	 * @param byteBudget The budget in bytes.
+	 */
+	public void setByteBudget(long byteBudget) {
+		this.byteBudget = byteBudget;
+	}
+
+	public int getTargetRotation() {
+		return this.targetRotation;
+	}
+
+	/**
+	 * Sets the token rotation time adaptive Nodes keep the ring under. 0 keeps every THT fixed.
+	 * @param targetRotation The target rotation time in milliseconds.
+	 */
+	public void setTargetRotation(int targetRotation) {
+		this.targetRotation = targetRotation;
+	}
+
+	public ThtMode getThtMode() {
+		return this.thtMode;
+	}
+
+	/**
+	 * Sets whether the THT counts payload bytes or microseconds.
+	 * @param thtMode The THT mode.
+	 */
+	public void setThtMode(ThtMode thtMode) {
+		this.thtMode = thtMode;
+	}
+
+	public boolean isNodeReport() {
+		return this.nodeReport;
+	}
+
+	/**
+	 * Selects whether a report line is printed for every Node after the ring has finished.
+	 * @param nodeReport True to print the per-Node report.
+	 */
+	public void setNodeReport(boolean nodeReport) {
+		this.nodeReport = nodeReport;
+	}
+
+	public boolean isAdaptiveTimeOut() {
+		return this.adaptiveTimeOut;
+	}
+
+	/**
+	 * Selects whether the Monitor derives its lost token time out from measured rotation times.
+	 * The time out multiplier then only sets the upper bound.
+	 * @param adaptiveTimeOut True to adapt the time out.
+	 */
+	public void setAdaptiveTimeOut(boolean adaptiveTimeOut) {
+		this.adaptiveTimeOut = adaptiveTimeOut;
+	}
+
+	public long getSeed() {
+		return this.seed;
+	}
+
+	/**
+	 * Sets the seed every random decision of the ring is derived from, so that a simulated run replays exactly.
+	 * @param seed The seed, a new one is picked for every configuration by default.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public int getSyntheticFrames() {
+		return this.syntheticFrames;
+	}
+
+	/**
+	 * Makes every Node generate its Frames instead of reading an input file, and count the Frames
+	 * delivered to it instead of writing an output file.
+	 * @param syntheticFrames The number of Frames each Node sends, 0 to use the input files.
+	 */
+	public void setSyntheticFrames(int syntheticFrames) {
+		this.syntheticFrames = syntheticFrames;
+	}
+
+	public long getBitRate() {
+		return this.bitRate;
+	}
+
+	/**
+	 * Sets the link speed of a simulated ring.
+	 * @param bitRate The bit rate in bits per second, 0 for links that take no time.
+	 */
+	public void setBitRate(long bitRate) {
+		this.bitRate = bitRate;
+	}
+
+	public long getPropagationDelay() {
+		return this.propagationDelay;
+	}
+
+	/**
+	 * Sets the delay from one Node to the next of a simulated ring.
+	 * @param propagationDelay The delay in nanoseconds.
+	 */
+	public void setPropagationDelay(long propagationDelay) {
+		this.propagationDelay = propagationDelay;
+	}
+
+	public Path getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * Sets the directory the Nodes read their input files from and write their output files to.
+	 * @param directory The directory, the working directory by default.
+	 */
+	public void setDirectory(Path directory) {
+		this.directory = directory;
+	}
+
+	public double getFaultRate(Fault fault) {
+		return this.faultRates[fault.ordinal()];
+	}
+
+	/**
+	 * Sets how often a fault occurs.
+	 * @param fault The kind of fault.
+	 * @param rate The rate in percent (0-100).
+	 */
+	public void setFaultRate(Fault fault, double rate) {
+		if (rate < 0 || rate > 100) {
+			throw new IllegalArgumentException(fault + " rate " + rate);
+		}
+		this.faultRates[fault.ordinal()] = rate;
+	}
+
+	/**
+	 * Makes garbled Frames and lost tokens come in bursts, following the Gilbert-Elliott model.
+	 * @param burstStart The chance of a burst starting at a transmission in percent, 0 for independent faults.
+	 * @param burstEnd The chance of a burst ending at a transmission in percent.
+	 * @param burstLoss The rate of garbled Frames and lost tokens during a burst in percent.
+	 */
+	public void setBurstLoss(double burstStart, double burstEnd, double burstLoss) {
+		if (burstStart < 0 || burstStart > 100 || burstEnd <= 0 || burstEnd > 100 || burstLoss < 0 || burstLoss > 100) {
+			throw new IllegalArgumentException("Burst " + burstStart + ":" + burstEnd + ":" + burstLoss);
+		}
+		this.burstStart = burstStart;
+		this.burstEnd = burstEnd;
+		this.burstLoss = burstLoss;
+	}
+
+	/**
+	 * Returns the cable emulated on a Node's output.
+	 * @param nodeID The ID of the Node.
+	 * @return The link profile, null if the link is not emulated.
+	 */
+	public LinkProfile getLinkProfile(int nodeID) {
+		LinkProfile profile = this.linkProfiles.get(nodeID);
+		return profile != null ? profile : this.linkProfile;
+	}
+
+	public boolean hasLinkProfiles() {
+		return this.linkProfile != null || !this.linkProfiles.isEmpty();
+	}
+
+	/**
+	 * Sets the cable emulated between every Node and its downstream neighbor.
+	 * @param linkProfile The link profile, null to use the transport as it is.
+	 */
+	public void setLinkProfile(LinkProfile linkProfile) {
+		this.linkProfile = linkProfile;
+	}
+
+	/**
+	 * Sets the cable emulated between one Node and its downstream neighbor.
+	 * @param nodeID The ID of the upstream Node, 0 for the Monitor.
+	 * @param linkProfile The link profile.
+	 */
+	public void setLinkProfile(int nodeID, LinkProfile linkProfile) {
+		this.linkProfiles.put(nodeID, linkProfile);
+	}
+}
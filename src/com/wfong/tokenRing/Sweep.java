@@ -0,0 +1,345 @@
+package com.wfong.tokenRing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.wfong.nodes.MonitorNode;
+import com.wfong.nodes.RelayNode;
+
+/**
+ * This class runs a grid of rings, every combination of node count, THT and time out multiplier
+ * a number of times, and writes one line of results per ring to a CSV or JSON file.<br>
+ * The rings run on a fork-join pool inside one JVM, so the trials share its start up and JIT
+ * compilation. Each trial generates its input in a directory of its own and every random decision
+ * is seeded from the sweep's seed, so a sweep can be repeated.<br>
+ * Simulated rings keep virtual time and run one per processor. Live rings run one at a time by
+ * default: concurrent rings compete for the processors and the network stack, so their rotation
+ * times and throughput measure the contention more than the THT. Trials of live rings run in
+ * parallel are only good for their counts, not for comparing their timings.
+ * @author William Fong
+ *
+ */
+public class Sweep {
+	//Columns of the result file
+	private static final String[] COLUMNS = { "trial", "nodes", "tht", "timeout", "seed", "elapsed_ms", "ring_ms",
+			"rotations", "mean_rotation_us", "max_rotation_us", "lost_tokens", "delivered_frames", "delivered_bytes",
+			"throughput_kBps", "retransmissions", "duplicates", "corrupt_frames" };
+
+	/**
+	 * One ring of the sweep and its results.
+	 */
+	private static class Trial {
+		private final int index;
+		private final int numberOfNodes;
+		private final int tht;
+		private final int timeOut;
+		private final long seed;
+		private final List<String> ringOptions;
+		private final Path directory;
+		private final boolean keepFiles;
+		private long[] results;
+
+		private Trial(int index, int numberOfNodes, int tht, int timeOut, long seed, List<String> ringOptions, Path directory, boolean keepFiles) {
+			this.index = index;
+			this.numberOfNodes = numberOfNodes;
+			this.tht = tht;
+			this.timeOut = timeOut;
+			this.seed = seed;
+			this.ringOptions = ringOptions;
+			this.directory = directory;
+			this.keepFiles = keepFiles;
+		}
+
+		/**
+		 * Generates the trial's input, runs its ring and records the results.
+		 */
+		private void run() throws IOException {
+			RingConfiguration configuration = new RingConfiguration(this.tht, this.timeOut);
+			for (String option : this.ringOptions) {
+				Test.parseOption(option, configuration);
+			}
+			configuration.setSeed(this.seed);
+			configuration.setDirectory(this.directory);
+			Files.createDirectories(this.directory);
+			if (configuration.getSyntheticFrames() == 0) {
+				InputGenerator.generate(this.directory, this.numberOfNodes, new Random(this.seed));
+			}
+			TokenRing ring = new TokenRing(this.numberOfNodes, configuration);
+			ring.runRing();
+			try {
+				ring.awaitRing();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			this.results = collect(ring);
+			if (!this.keepFiles) {
+				deleteDirectory(this.directory);
+			}
+		}
+
+		/**
+		 * Sums the statistics of a finished ring, in the order of {@link Sweep#COLUMNS}.
+		 */
+		private long[] collect(TokenRing ring) {
+			MonitorNode monitor = ring.getMonitor();
+			long deliveredFrames = 0;
+			long deliveredBytes = 0;
+			long retransmissions = 0;
+			long duplicates = 0;
+			long corruptFrames = monitor.getCorruptFrames();
+			for (RelayNode node : ring.getNodes()) {
+				deliveredFrames += node.getDeliveredFrames();
+				deliveredBytes += node.getDeliveredBytes();
+				retransmissions += node.getRetransmissions();
+				duplicates += node.getDuplicatesDiscarded();
+				corruptFrames += node.getCorruptFrames();
+			}
+			long ringTime = ring.getRingTime();
+			return new long[] { this.index, this.numberOfNodes, this.tht, this.timeOut, this.seed,
+					ring.getElapsedTime() / 1000000, ringTime / 1000000, monitor.getRotationCount(),
+					monitor.getMeanRotationTime() / 1000, monitor.getMaxRotationTime() / 1000, monitor.getLostTokens(),
+					deliveredFrames, deliveredBytes, (deliveredBytes * 1000000 / Math.max(ringTime / 1000, 1)) / 1000,
+					retransmissions, duplicates, corruptFrames };
+		}
+	}
+
+	public static void main(String[] args) {
+		String nodes = "10";
+		String thts = "10-200/10";
+		String timeOuts = "10";
+		int trials = 5;
+		//Zero until set, then chosen by the thread mode
+		int parallelism = 0;
+		Path output = Paths.get("sweep.csv");
+		Path directory = Paths.get("sweep");
+		boolean keepFiles = false;
+		List<String> ringOptions = new ArrayList<String>();
+		RingConfiguration base = new RingConfiguration();
+		List<Trial> grid = new ArrayList<Trial>();
+		try {
+			for (String arg : args) {
+				int split = arg.indexOf('=');
+				if (!arg.startsWith("-") || split < 0) {
+					throw new IllegalArgumentException(arg);
+				}
+				String name = arg.substring(1, split);
+				String value = arg.substring(split + 1);
+				if (name.equals("nodes")) {
+					nodes = value;
+				} else if (name.equals("thts")) {
+					thts = value;
+				} else if (name.equals("timeouts")) {
+					timeOuts = value;
+				} else if (name.equals("trials")) {
+					trials = Integer.valueOf(value);
+				} else if (name.equals("parallel")) {
+					parallelism = Integer.valueOf(value);
+				} else if (name.equals("out")) {
+					output = Paths.get(value);
+				} else if (name.equals("dir")) {
+					directory = Paths.get(value);
+				} else if (name.equals("keep")) {
+					keepFiles = Boolean.parseBoolean(value);
+				} else {
+					//Every other option configures the rings, check it once up front
+					Test.parseOption(arg, base);
+					if (!name.equals("seed")) {
+						ringOptions.add(arg);
+					}
+				}
+			}
+			//Trial seeds are drawn in grid order, so they do not depend on which trial runs first
+			Random seeds = new Random(base.getSeed());
+			for (int numberOfNodes : parseList(nodes)) {
+				if (numberOfNodes < 2 || numberOfNodes > 254) {
+					throw new IllegalArgumentException("-nodes=" + nodes);
+				}
+				for (int tht : parseList(thts)) {
+					for (int timeOut : parseList(timeOuts)) {
+						for (int i = 0; i < trials; i++) {
+							int index = grid.size();
+							grid.add(new Trial(index, numberOfNodes, tht, timeOut, seeds.nextLong(), ringOptions,
+									directory.resolve("trial-" + index), keepFiles));
+						}
+					}
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println("Invalid option: " + e.getMessage());
+			printUsage();
+			return;
+		}
+		boolean simulated = base.getThreadMode() == ThreadMode.SIMULATED;
+		if (parallelism == 0) {
+			parallelism = simulated ? Runtime.getRuntime().availableProcessors() : 1;
+		} else if (parallelism > 1 && !simulated) {
+			System.err.println("Warning: " + parallelism + " live rings at once compete for the processors, their timings are not comparable");
+		}
+		runSweep(grid, Math.max(1, parallelism), output);
+	}
+
+	/**
+	 * Runs every trial on a fork-join pool and writes the results in grid order.
+	 */
+	private static void runSweep(final List<Trial> grid, int parallelism, Path output) {
+		final PrintStream console = System.out;
+		//The Nodes of concurrent rings would interleave their messages, only report progress
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		console.println("SWEEP: trials=" + grid.size() + " parallel=" + parallelism + " out=" + output);
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		final AtomicInteger finished = new AtomicInteger();
+		List<ForkJoinTask<Trial>> tasks = new ArrayList<ForkJoinTask<Trial>>();
+		for (final Trial trial : grid) {
+			tasks.add(pool.submit(new Callable<Trial>() {
+				@Override
+				public Trial call() throws IOException {
+					trial.run();
+					console.println("Trial " + finished.incrementAndGet() + "/" + grid.size() + " nodes=" + trial.numberOfNodes +
+							" tht=" + trial.tht + " timeout=" + trial.timeOut + " done");
+					return trial;
+				}
+			}));
+		}
+		List<Trial> finishedTrials = new ArrayList<Trial>();
+		for (ForkJoinTask<Trial> task : tasks) {
+			try {
+				finishedTrials.add(task.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				System.err.println("Trial failed: " + e.getCause());
+			}
+		}
+		pool.shutdown();
+		System.setOut(console);
+		try {
+			writeResults(finishedTrials, output);
+		} catch (IOException e) {
+			System.err.println("Could not write " + output + ": " + e.getMessage());
+		}
+		System.out.println("SWEEP: finished " + finishedTrials.size() + " trials in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	/**
+	 * Writes one record per trial, as JSON if the file name ends in ".json" and as CSV otherwise.
+	 */
+	private static void writeResults(List<Trial> trials, Path output) throws IOException {
+		boolean json = output.toString().toLowerCase().endsWith(".json");
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output))) {
+			if (json) {
+				writer.println("[");
+			} else {
+				writer.println(String.join(",", COLUMNS));
+			}
+			//Trials interrupted before they finished have no results and are skipped
+			boolean first = true;
+			for (Trial trial : trials) {
+				long[] results = trial.results;
+				if (results == null) {
+					continue;
+				}
+				StringBuilder line = new StringBuilder();
+				for (int column = 0; column < COLUMNS.length; column++) {
+					if (column > 0) {
+						line.append(json ? ", " : ",");
+					}
+					if (json) {
+						line.append('"').append(COLUMNS[column]).append("\": ");
+					}
+					line.append(results[column]);
+				}
+				if (json) {
+					//The separator goes before every record but the first one written
+					if (!first) {
+						writer.println(",");
+					}
+					writer.print("  {" + line + "}");
+				} else {
+					writer.println(line);
+				}
+				first = false;
+			}
+			if (json) {
+				if (!first) {
+					writer.println();
+				}
+				writer.println("]");
+			}
+		}
+	}
+
+	/**
+	 * Parses a list of values such as "10,20,50" or a range such as "10-200/10" (from 10 to 200 in steps of 10).
+	 */
+	private static List<Integer> parseList(String list) {
+		List<Integer> values = new ArrayList<Integer>();
+		for (String item : list.split(",")) {
+			int dash = item.indexOf('-', 1);
+			if (dash < 0) {
+				values.add(Integer.valueOf(item));
+				continue;
+			}
+			int slash = item.indexOf('/');
+			int from = Integer.valueOf(item.substring(0, dash));
+			int to = Integer.valueOf(item.substring(dash + 1, slash < 0 ? item.length() : slash));
+			int step = slash < 0 ? 1 : Integer.valueOf(item.substring(slash + 1));
+			if (step < 1) {
+				throw new IllegalArgumentException(item);
+			}
+			for (int value = from; value <= to; value += step) {
+				values.add(value);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Deletes a trial's directory and the files in it.
+	 */
+	private static void deleteDirectory(Path directory) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	/**
+	 * Prints the command line usage.
+	 */
+	private static void printUsage() {
+		System.out.println("Usage: ");
+		System.out.println("java -cp wfong_p2.jar com.wfong.tokenRing.Sweep [Options] [Ring Options]");
+		System.out.println("Lists are comma separated values or ranges <from>-<to>/<step>");
+		System.out.println("Options:");
+		System.out.println("\t-nodes=<list>\t\tNumbers of Nodes (default 10)");
+		System.out.println("\t-thts=<list>\t\tTHT values (default 10-200/10)");
+		System.out.println("\t-timeouts=<list>\tTime out multipliers (default 10)");
+		System.out.println("\t-trials=<n>\t\tRings run for every combination (default 5)");
+		System.out.println("\t-parallel=<n>\t\tRings run at once (default one per processor if simulated, otherwise 1)");
+		System.out.println("\t\t\t\tLive rings run at once slow each other, only compare their timings at 1");
+		System.out.println("\t-out=<file>\t\tResult file, JSON if it ends in .json and CSV otherwise (default sweep.csv)");
+		System.out.println("\t-dir=<directory>\tWhere each trial's input and output files are written (default sweep)");
+		System.out.println("\t-keep=true|false\tKeep each trial's files once it has finished (default false)");
+		System.out.println("\t-seed=<n>\t\tSeed the trials' seeds are drawn from (default random)");
+		System.out.println("Every other option of the Test program applies to all rings");
+	}
+}
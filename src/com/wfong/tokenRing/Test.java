@@ -1,5 +1,17 @@
 package com.wfong.tokenRing;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.wfong.fault.Fault;
+import com.wfong.io.Durability;
+import com.wfong.nodes.RelayNode;
+import com.wfong.nodes.ThtMode;
+import com.wfong.transport.LinkProfile;
+import com.wfong.simulation.Simulator;
+import com.wfong.transport.TransportType;
+import com.wfong.transport.WaitStrategy;
+
 
 /**
  * This class is for testing the Node network
@@ -9,20 +21,177 @@ package com.wfong.tokenRing;
 public class Test {
 	
 	public static void main(String[] args) {
-		if (args.length == 0 || args.length > 3 || Integer.valueOf(args[0]) < 2 || Integer.valueOf(args[0]) > 254) {
-			System.out.println("Usage: ");
-			System.out.println("./wfong_p2.jar [number of Nodes to execute (2-254)] [Optional - THT] [Optional - Timeout Multiplier]");
+		List<String> positional = new ArrayList<String>();
+		RingConfiguration configuration = new RingConfiguration();
+		try {
+			for (String arg : args) {
+				if (arg.startsWith("-")) {
+					parseOption(arg, configuration);
+				} else {
+					positional.add(arg);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println("Invalid option: " + e.getMessage());
+			positional.clear();
+		}
+		if (positional.size() == 0 || positional.size() > 3 || Integer.valueOf(positional.get(0)) < 2 || Integer.valueOf(positional.get(0)) > 254) {
+			printUsage();
 			return;
 		}
-		TokenRing testRing = null;
-		
-		if (args.length == 1)
-			testRing = new TokenRing(Integer.valueOf(args[0]));
-		else if (args.length == 2)
-			testRing = new TokenRing(Integer.valueOf(args[0]), Integer.valueOf(args[1]));
-		else if (args.length == 3)
-			testRing = new TokenRing(Integer.valueOf(args[0]), Integer.valueOf(args[1]), Integer.valueOf(args[2]));		
+		if (positional.size() >= 2)
+			configuration.setGlobalTHT(Integer.valueOf(positional.get(1)));
+		if (positional.size() == 3)
+			configuration.setGlobalTimeOut(Integer.valueOf(positional.get(2)));
+		TokenRing testRing = new TokenRing(Integer.valueOf(positional.get(0)), configuration);
 		testRing.runRing();	
+		try {
+			testRing.awaitRing();
+		} catch (InterruptedException e) {
+			return;
+		}
+		testRing.printReport();
+		if (configuration.isNodeReport()) {
+			testRing.printNodeReport();
+		}
+	}
+	
+	/**
+	 * Applies a "-name=value" option to the ring configuration.
+	 * @param option The option as given on the command line.
+	 * @param configuration The configuration to modify.
+	 */
+	static void parseOption(String option, RingConfiguration configuration) {
+		int split = option.indexOf('=');
+		if (split < 0) {
+			throw new IllegalArgumentException(option);
+		}
+		String name = option.substring(1, split);
+		String value = option.substring(split + 1);
+		if (name.equals("transport")) {
+			configuration.setTransportType(TransportType.parse(value));
+		} else if (name.equals("wait")) {
+			configuration.setWaitStrategy(WaitStrategy.parse(value));
+		} else if (name.equals("threads")) {
+			configuration.setThreadMode(ThreadMode.parse(value));
+		} else if (name.equals("loops")) {
+			configuration.setEventLoops(Integer.valueOf(value));
+		} else if (name.equals("durability")) {
+			configuration.setDurability(Durability.parse(value));
+		} else if (name.equals("release")) {
+			if (value.equalsIgnoreCase("early")) {
+				configuration.setEarlyTokenRelease(true);
+			} else if (value.equalsIgnoreCase("standard")) {
+				configuration.setEarlyTokenRelease(false);
+			} else {
+				throw new IllegalArgumentException(option);
+			}
+		} else if (name.equals("forward")) {
+			if (value.equalsIgnoreCase("cut")) {
+				configuration.setCutThrough(true);
+			} else if (value.equalsIgnoreCase("store")) {
+				configuration.setCutThrough(false);
+			} else {
+				throw new IllegalArgumentException(option);
+			}
+		} else if (name.equals("flow")) {
+			if (value.equalsIgnoreCase("credit")) {
+				configuration.setCreditFlowControl(true);
+			} else if (value.equalsIgnoreCase("random")) {
+				configuration.setCreditFlowControl(false);
+			} else {
+				throw new IllegalArgumentException(option);
+			}
+		} else if (name.equals("window")) {
+			configuration.setSendWindow(Integer.valueOf(value));
+		} else if (name.equals("budget")) {
+			configuration.setByteBudget(Long.valueOf(value));
+		} else if (name.equals("adaptive")) {
+			configuration.setTargetRotation(Integer.valueOf(value));
+		} else if (name.equals("tht")) {
+			configuration.setThtMode(ThtMode.parse(value));
+		} else if (name.equals("report")) {
+			if (value.equalsIgnoreCase("nodes")) {
+				configuration.setNodeReport(true);
+			} else if (value.equalsIgnoreCase("ring")) {
+				configuration.setNodeReport(false);
+			} else {
+				throw new IllegalArgumentException(option);
+			}
+		} else if (name.equals("timeout")) {
+			if (value.equalsIgnoreCase("adaptive")) {
+				configuration.setAdaptiveTimeOut(true);
+			} else if (value.equalsIgnoreCase("fixed")) {
+				configuration.setAdaptiveTimeOut(false);
+			} else {
+				throw new IllegalArgumentException(option);
+			}
+		} else if (name.equals("buffer")) {
+			configuration.setBufferCapacity(Integer.valueOf(value));
+		} else if (name.equals("seed")) {
+			configuration.setSeed(Long.valueOf(value));
+		} else if (name.equals("frames")) {
+			configuration.setSyntheticFrames(Integer.valueOf(value));
+		} else if (name.equals("garble")) {
+			configuration.setFaultRate(Fault.GARBLE, Double.valueOf(value));
+		} else if (name.equals("reject")) {
+			configuration.setFaultRate(Fault.REJECT, Double.valueOf(value));
+		} else if (name.equals("orphan")) {
+			configuration.setFaultRate(Fault.ORPHAN, Double.valueOf(value));
+		} else if (name.equals("tokenloss")) {
+			configuration.setFaultRate(Fault.TOKEN_LOSS, Double.valueOf(value));
+		} else if (name.equals("burst")) {
+			String[] burst = value.split(":");
+			if (burst.length != 3) {
+				throw new IllegalArgumentException(option);
+			}
+			configuration.setBurstLoss(Double.valueOf(burst[0]), Double.valueOf(burst[1]), Double.valueOf(burst[2]));
+		} else if (name.equals("link")) {
+			configuration.setLinkProfile(LinkProfile.parse(value));
+		} else if (name.matches("link[0-9]+")) {
+			configuration.setLinkProfile(Integer.valueOf(name.substring(4)), LinkProfile.parse(value));
+		} else if (name.equals("bitrate")) {
+			configuration.setBitRate(Long.valueOf(value));
+		} else if (name.equals("propagation")) {
+			configuration.setPropagationDelay(Long.valueOf(value));
+		} else {
+			throw new IllegalArgumentException(option);
+		}
+	}
+	
+	/**
+	 * Prints the command line usage.
+	 */
+	private static void printUsage() {
+		System.out.println("Usage: ");
+		System.out.println("./wfong_p2.jar [number of Nodes to execute (2-254)] [Optional - THT] [Optional - Timeout Multiplier] [Options]");
+		System.out.println("Options:");
+		System.out.println("\t-transport=tcp|inproc\tHow Nodes are linked (default tcp)");
+		System.out.println("\t-wait=spin|yield|park\tHow in-process Nodes wait for data, virtual threads park instead of spinning (default park)");
+		System.out.println("\t-buffer=<bytes>\t\tCapacity of each in-process ring buffer");
+		System.out.println("\t-threads=platform|virtual|eventloop|simulated\tRun each Node on a platform thread, a virtual thread, multiplex all Nodes on event loops, or simulate the ring on a virtual clock (default platform)");
+		System.out.println("\t-loops=<n>\t\tNumber of selector threads used with -threads=eventloop (default 1)");
+		System.out.println("\t-durability=batch|shutdown\tForce output files to disk after every batch or only on shutdown (default shutdown)");
+		System.out.println("\t-release=early|standard\tRelease the token right behind the last frame, or once the frames have returned (default early)");
+		System.out.println("\t-forward=cut|store\tForward passing frames from their header, or decode them first (default cut)");
+		System.out.println("\t-flow=credit|random\tReceivers advertise free room on the token and only reject when full, or reject 20% at random (default random)");
+		System.out.println("\t-window=<frames>\tFrames each Node may have outstanding before it passes the token (default " + RelayNode.DEFAULT_SEND_WINDOW + ")");
+		System.out.println("\t-budget=<bytes>\t\tData each Node may hold queued or outstanding before it stops reading its input (default " + RelayNode.DEFAULT_BYTE_BUDGET + ")");
+		System.out.println("\t-adaptive=<ms>\t\tAdjust each Node's THT at runtime to keep the token rotation under <ms> (THT is the starting value)");
+		System.out.println("\t-tht=bytes|time\t\tCount the THT in payload bytes or in microseconds of wall-clock time (default bytes)");
+		System.out.println("\t-report=ring|nodes\tAlso print where each Node's holding time went (default ring)");
+		System.out.println("\t-seed=<n>\t\tSeed of every random decision, a simulated run with the same seed and options replays exactly (default random)");
+		System.out.println("\t-frames=<n>\t\tGenerate <n> frames per Node and only count delivered frames instead of using the input and output files");
+		System.out.println("\t-garble=<%>\t\tChance of a transmitted frame losing a byte (default " + Fault.GARBLE.getDefaultRate() + ")");
+		System.out.println("\t-reject=<%>\t\tChance of a destination rejecting a frame with -flow=random (default " + Fault.REJECT.getDefaultRate() + ")");
+		System.out.println("\t-orphan=<%>\t\tChance of a source leaving its acknowledged frame on the ring (default " + Fault.ORPHAN.getDefaultRate() + ")");
+		System.out.println("\t-tokenloss=<%>\t\tChance of a Node losing the token (default " + Fault.TOKEN_LOSS.getDefaultRate() + ")");
+		System.out.println("\t-burst=<start%>:<end%>:<loss%>\tGarble frames and lose tokens in Gilbert-Elliott bursts: chance per transmission of a burst starting and ending, and the rate during a burst");
+		System.out.println("\t-link=<bits/s>[:<delay ns>[:<jitter ns>[:<queue bytes>[:<burst bytes>]]]]\tEmulate a cable between every Node and the next, a bit rate of 0 is unlimited (queue default " + LinkProfile.DEFAULT_QUEUE_DEPTH + ")");
+		System.out.println("\t-link<n>=<...>\t\tEmulate a different cable after Node <n> (0 is the Monitor)");
+		System.out.println("\t-bitrate=<bits/s>\tLink speed of a simulated ring (default " + Simulator.DEFAULT_BIT_RATE + ")");
+		System.out.println("\t-propagation=<ns>\tDelay from one Node to the next of a simulated ring (default " + Simulator.DEFAULT_PROPAGATION_DELAY + ")");
+		System.out.println("\t-timeout=adaptive|fixed\tDerive the lost token time out from measured rotations, or always wait nodes * multiplier ms (default adaptive)");
 	}
 
 }
@@ -0,0 +1,69 @@
+package com.wfong.tokenRing;
+
+import java.lang.reflect.Method;
+
+/**
+ * This enum lists the kinds of threads the Nodes of a ring may run on.
+ * @author William Fong
+ *
+ */
+public enum ThreadMode {
+	/**
+	 * One operating system thread per Node.
+	 */
+	PLATFORM,
+	/**
+	 * One virtual thread per Node (requires Java 21 or later).
+	 */
+	VIRTUAL,
+	/**
+	 * All Nodes driven as state machines by a few selector threads.
+	 */
+	EVENT_LOOP,
+	/**
+	 * All Nodes driven as state machines by a discrete-event simulator on one thread, against a
+	 * virtual clock instead of real time.
+	 */
+	SIMULATED;
+
+	//Only warn once when virtual threads are unavailable
+	private static volatile boolean warned;
+
+	/**
+	 * Creates an unstarted thread of this kind.<br>
+	 * Virtual threads are created reflectively so the project still builds on older JDKs, where
+	 * a platform thread is returned instead.
+	 * @param task The Node to run.
+	 * @param name The name of the thread.
+	 * @return The unstarted thread.
+	 */
+	public Thread newThread(Runnable task, String name) {
+		if (this == VIRTUAL) {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+				Method unstarted = builderClass.getMethod("unstarted", Runnable.class);
+				return (Thread) unstarted.invoke(builder, task);
+			} catch (ReflectiveOperationException e) {
+				if (!warned) {
+					warned = true;
+					System.err.println("Virtual threads are not supported by this JVM, using platform threads");
+				}
+			}
+		}
+		return new Thread(task, name);
+	}
+
+	/**
+	 * Parses a thread mode from the command line.
+	 * @param name "platform", "virtual", "eventloop" or "simulated" (case insensitive).
+	 * @return The thread mode.
+	 */
+	public static ThreadMode parse(String name) {
+		if (name.equalsIgnoreCase("eventloop")) {
+			return EVENT_LOOP;
+		}
+		return valueOf(name.toUpperCase());
+	}
+}
@@ -1,10 +1,28 @@
 package com.wfong.tokenRing;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.wfong.engine.EventLoopEngine;
+import com.wfong.io.CountingFrameSink;
+import com.wfong.io.SyntheticFrameSource;
 import com.wfong.nodes.MonitorNode;
+import com.wfong.nodes.Node;
 import com.wfong.nodes.RelayNode;
+import com.wfong.simulation.Simulator;
+import com.wfong.token.STPLPFrame;
+import com.wfong.transport.Transport;
 
 /**
  * This class is for creating and holding the network
@@ -15,15 +33,24 @@ public class TokenRing {
 	private List<RelayNode> Ring;
 	private List<Thread> ringThreads;
 	private MonitorNode monitor;
+	private RingConfiguration configuration;
 	private int globalTHT;
 	private int globalTimeOut;
 	private int numberNodes; //Used for THT experiment
+	private long startTime;
+	private long createTime;
+	private long readyTime;
+	private long elapsedTime;
+	private CountDownLatch readyLatch;
+	//Drives the ring on virtual time, null unless the ring is simulated
+	private Simulator simulator;
 	
 	/**
 	 * Default constructor
 	 */
 	public TokenRing() {
 		this.Ring = new ArrayList<RelayNode>();
+		this.configuration = new RingConfiguration();
 	}
 	
 	/**
@@ -32,6 +59,7 @@ public class TokenRing {
 	 */
 	public TokenRing(List<RelayNode> ring) {
 		this.Ring = ring;
+		this.configuration = new RingConfiguration();
 	}
 	
 	/**
@@ -39,12 +67,7 @@ public class TokenRing {
 	 * @param numberOfNodes The number of nodes the network will have
 	 */
 	public TokenRing(int numberOfNodes) {
-		this.Ring = new ArrayList<RelayNode>();
-		this.ringThreads = new ArrayList<Thread>();
-		this.globalTHT = 150;
-		this.globalTimeOut = 10;
-		this.numberNodes = numberOfNodes;
-		createRing(numberOfNodes);
+		this(numberOfNodes, new RingConfiguration());
 	}
 	
 	/**
@@ -53,12 +76,7 @@ public class TokenRing {
 	 * @param globalTHT The THT for the network.
 	 */
 	public TokenRing(int numberOfNodes, int globalTHT) {
-		this.Ring = new ArrayList<RelayNode>();
-		this.ringThreads = new ArrayList<Thread>();
-		this.globalTHT = globalTHT;
-		this.globalTimeOut = 10;
-		this.numberNodes = numberOfNodes;
-		createRing(numberOfNodes);
+		this(numberOfNodes, new RingConfiguration(globalTHT, 10));
 	}
 	
 	/**
@@ -68,47 +86,302 @@ public class TokenRing {
 	 * @param globalTimeOut The time out multiplier for the network.
 	 */
 	public TokenRing(int numberOfNodes, int globalTHT, int globalTimeOut) {
+		this(numberOfNodes, new RingConfiguration(globalTHT, globalTimeOut));
+	}
+	
+	/**
+	 * This constructor creates a ring with the number of nodes specified and the given configuration.
+	 * @param numberOfNodes The number of nodes the network will have.
+	 * @param configuration The THT, time out multiplier and transport for the network.
+	 */
+	public TokenRing(int numberOfNodes, RingConfiguration configuration) {
 		this.Ring = new ArrayList<RelayNode>();
 		this.ringThreads = new ArrayList<Thread>();
-		this.globalTHT = globalTHT;
-		this.globalTimeOut = globalTimeOut;
+		this.configuration = configuration;
+		this.globalTHT = configuration.getGlobalTHT();
+		this.globalTimeOut = configuration.getGlobalTimeOut();
 		this.numberNodes = numberOfNodes;
+		if (configuration.hasLinkProfiles() && (configuration.getThreadMode() == ThreadMode.EVENT_LOOP ||
+				configuration.getThreadMode() == ThreadMode.SIMULATED)) {
+			System.err.println("Links are only emulated with a thread per Node, use -bitrate and -propagation to simulate them");
+		}
+		if (configuration.getWaitStrategy() != configuration.getEffectiveWaitStrategy()) {
+			System.err.println("Virtual threads cannot spin without starving the token holder, waiting with " +
+					configuration.getEffectiveWaitStrategy() + " instead");
+		}
+		if (configuration.getThreadMode() == ThreadMode.SIMULATED) {
+			this.simulator = new Simulator();
+			this.simulator.setBitRate(configuration.getBitRate());
+			this.simulator.setPropagationDelay(configuration.getPropagationDelay());
+		}
 		createRing(numberOfNodes);
 	}
 	
 	/**
-	 * This method runs the ring by starting each node sequentially
+	 * This method runs the ring by starting each node. It returns once every node has accepted
+	 * its upstream neighbor, Node 1 only releases the first token after that point.
 	 */
 	public void runRing() {
 		//System.out.print(this.numberNodes + " " + this.globalTHT + " " + this.globalTimeOut + " ");
-		for (Thread thread : ringThreads) {
+		this.startTime = System.nanoTime();
+		if (this.configuration.getThreadMode() == ThreadMode.EVENT_LOOP) {
+			runEventLoops();
+		} else if (this.simulator != null) {
+			runSimulation();
+		} else {
+			for (Thread thread : ringThreads) {
+				thread.start();
+			}
+		}
+		try {
+			this.readyLatch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.readyTime = System.nanoTime() - this.startTime;
+	}
+	
+	/**
+	 * This method runs the ring on the event loop engine instead of one thread per node.
+	 */
+	private void runEventLoops() {
+		List<Node> nodes = new ArrayList<Node>();
+		nodes.add(this.monitor);
+		nodes.addAll(this.Ring);
+		try {
+			EventLoopEngine engine = new EventLoopEngine(this.configuration.getEventLoops());
+			engine.addNodes(nodes);
+			engine.start();
+			this.ringThreads = engine.getThreads();
+		} catch (IOException e) {
+			System.err.println("Could not start the event loops: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * This method runs the ring in the discrete-event simulator, on a thread of its own.
+	 */
+	private void runSimulation() {
+		List<Node> nodes = new ArrayList<Node>();
+		nodes.add(this.monitor);
+		nodes.addAll(this.Ring);
+		try {
+			this.simulator.addNodes(nodes);
+			Thread thread = new Thread(this.simulator, "Simulator");
+			this.ringThreads.add(thread);
 			thread.start();
+		} catch (IOException e) {
+			System.err.println("Could not start the simulation: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * This method waits for every node of the ring to terminate and stops the ring's clock.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting.
+	 */
+	public void awaitRing() throws InterruptedException {
+		for (Thread thread : ringThreads) {
+			thread.join();
 		}
+		this.elapsedTime = System.nanoTime() - this.startTime;
 	}
 	
 	/**
-	 * This method creates the ring by creating each node and monitor node individually and connecting them via sockets.
+	 * This method prints the run time, token rotation time and memory footprint of the ring.<br>
+	 * The footprint is the JVM's peak heap usage and peak number of platform threads, each platform
+	 * thread also reserves its own native stack.<br>
+	 * The throughput of a simulated ring is measured against its virtual time.
+	 */
+	public void printReport() {
+		long elapsed = this.elapsedTime;
+		long ringTime = getRingTime();
+		long heapUsed = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapUsed += pool.getPeakUsage().getUsed() / 1024;
+			}
+		}
+		int platformThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+		long deliveredFrames = 0;
+		long deliveredBytes = 0;
+		long totalTHT = 0;
+		long corruptFrames = this.monitor.getCorruptFrames();
+		long cutThroughFrames = 0;
+		for (RelayNode node : this.Ring) {
+			deliveredFrames += node.getDeliveredFrames();
+			deliveredBytes += node.getDeliveredBytes();
+			totalTHT += node.getTHT();
+			corruptFrames += node.getCorruptFrames();
+			cutThroughFrames += node.getCutThroughFrames();
+		}
+		System.out.println("RING: nodes=" + this.numberNodes +
+				" threads=" + this.configuration.getThreadMode() +
+				" release=" + (this.configuration.isEarlyTokenRelease() ? "early" : "standard") +
+				" transport=" + this.monitor.getTransport().getClass().getSimpleName() +
+				" startup_ms=" + ((this.createTime + this.readyTime) / 1000000) +
+				" elapsed_ms=" + (elapsed / 1000000) +
+				" rotations=" + this.monitor.getRotationCount() +
+				" mean_rotation_us=" + (this.monitor.getMeanRotationTime() / 1000) +
+				" max_rotation_us=" + (this.monitor.getMaxRotationTime() / 1000) +
+				" lost_tokens=" + this.monitor.getLostTokens() +
+				" purged_tokens=" + this.monitor.getPurgedTokens() +
+				" token_timeout_ms=" + this.monitor.getTimeOutPeriod() +
+				" corrupt_frames=" + corruptFrames +
+				" cut_through_frames=" + cutThroughFrames +
+				" mean_tht=" + (totalTHT / Math.max(this.Ring.size(), 1)) +
+				" delivered_frames=" + deliveredFrames +
+				" throughput_kBps=" + (deliveredBytes * 1000000 / Math.max(ringTime / 1000, 1)) / 1000 +
+				" peak_heap_kb=" + heapUsed +
+				" peak_platform_threads=" + platformThreads +
+				" seed=" + this.configuration.getSeed() +
+				(this.simulator == null ? "" : " simulated_ms=" + (ringTime / 1000000) +
+						" events=" + this.simulator.getEventCount() +
+						" events_per_s=" + (this.simulator.getEventCount() * 1000000000L / Math.max(elapsed, 1))));
+	}
+	
+	/**
+	 * Returns the wall-clock time from the start of the ring until every node terminated.
+	 * @return The elapsed time in nanoseconds.
+	 */
+	public long getElapsedTime() {
+		return this.elapsedTime;
+	}
+	
+	/**
+	 * Returns how long the ring ran, from its start until every node terminated.
+	 * @return The run time in nanoseconds, virtual time for a simulated ring.
+	 */
+	public long getRingTime() {
+		return this.simulator != null ? this.simulator.nanoTime() : this.elapsedTime;
+	}
+	
+	/**
+	 * Returns the Monitor Node of the ring.
+	 * @return The Monitor.
+	 */
+	public MonitorNode getMonitor() {
+		return this.monitor;
+	}
+	
+	/**
+	 * Returns the Relay Nodes of the ring.
+	 * @return The Relay Nodes in ring order.
+	 */
+	public List<RelayNode> getNodes() {
+		return this.Ring;
+	}
+	
+	/**
+	 * Prints one line per Relay Node showing how it used its token holding time.
+	 */
+	public void printNodeReport() {
+		for (RelayNode node : this.Ring) {
+			System.out.println(node.getHoldReport());
+		}
+	}
+	
+	/**
+	 * This method creates the ring. All nodes are created in parallel, each binding an ephemeral port,
+	 * and then every node connects to its downstream neighbor in parallel.
 	 * @param numberOfNodes The number of nodes for the network.
 	 * @return Returns 0
 	 */
-	private int createRing (int numberOfNodes) {
-		this.monitor = new MonitorNode(0, (numberOfNodes * this.globalTimeOut));
-		this.ringThreads.add(new Thread(this.monitor));
-		for (int i = 1; i <= numberOfNodes; i++) {
-			//Create node with input file pattern, THT, and timeout period
-			this.Ring.add(new RelayNode("input-file-", i, this.globalTHT, (numberOfNodes * this.globalTimeOut)));
+	private int createRing (final int numberOfNodes) {
+		long createStart = System.nanoTime();
+		final int timeOutPeriod = numberOfNodes * this.globalTimeOut;
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(numberOfNodes + 1, Runtime.getRuntime().availableProcessors() * 2));
+		//Seeds are drawn in node order so that they do not depend on which node is created first
+		Random seeds = new Random(this.configuration.getSeed());
+		try {
+			List<Future<RelayNode>> pendingNodes = new ArrayList<Future<RelayNode>>();
+			for (int i = 1; i <= numberOfNodes; i++) {
+				final int nodeID = i;
+				final long nodeSeed = seeds.nextLong();
+				final long sourceSeed = seeds.nextLong();
+				//Create node with input file pattern, THT, and timeout period
+				pendingNodes.add(pool.submit(new Callable<RelayNode>() {
+					@Override
+					public RelayNode call() {
+						RelayNode node;
+						if (configuration.getSyntheticFrames() > 0) {
+							node = new RelayNode(nodeID, globalTHT, timeOutPeriod, newTransport(nodeID),
+									new SyntheticFrameSource(new Random(sourceSeed), configuration.getSyntheticFrames(), numberOfNodes, 1, STPLPFrame.MAX_DATA_SIZE),
+									new CountingFrameSink());
+						} else {
+							node = new RelayNode(configuration.getDirectory().resolve("input-file-").toString(),
+									configuration.getDirectory().resolve("output-file-").toString(),
+									nodeID, globalTHT, timeOutPeriod, newTransport(nodeID), configuration.getDurability());
+						}
+						node.setFaultModel(configuration.newFaultModel(nodeSeed));
+						node.setEarlyTokenRelease(configuration.isEarlyTokenRelease());
+						node.setCutThrough(configuration.isCutThrough());
+						node.setSendWindow(configuration.getSendWindow());
+						node.setCreditFlowControl(configuration.isCreditFlowControl());
+						node.setByteBudget(configuration.getByteBudget());
+						node.setThtMode(configuration.getThtMode());
+						if (configuration.getTargetRotation() > 0) {
+							node.setAdaptiveTHT(configuration.getTargetRotation() * 1000000L);
+						}
+						return node;
+					}
+				}));
+			}
+			this.monitor = new MonitorNode(0, timeOutPeriod, newTransport(0));
+			this.monitor.setAdaptiveTimeOut(this.configuration.isAdaptiveTimeOut());
+			for (Future<RelayNode> node : pendingNodes) {
+				this.Ring.add(node.get());
+			}
+			//Establish every connection to the 'next node' at once, the monitor completes the loop
+			final List<Node> nodes = new ArrayList<Node>();
+			nodes.add(this.monitor);
+			nodes.addAll(this.Ring);
+			List<Future<?>> connections = new ArrayList<Future<?>>();
+			for (int i = 0; i < nodes.size(); i++) {
+				final Node node = nodes.get(i);
+				final Node next = nodes.get((i + 1) % nodes.size());
+				connections.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						node.connectTo(next);
+					}
+				}));
+			}
+			for (Future<?> connection : connections) {
+				connection.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.err.println("Could not create the ring: " + e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		//Every node counts down once it has accepted its upstream neighbor
+		this.readyLatch = new CountDownLatch(numberOfNodes + 1);
+		this.monitor.setReadyLatch(this.readyLatch);
+		ThreadMode threadMode = this.configuration.getThreadMode();
+		boolean dedicatedThreads = threadMode != ThreadMode.EVENT_LOOP && threadMode != ThreadMode.SIMULATED;
+		if (dedicatedThreads)
+			this.ringThreads.add(threadMode.newThread(this.monitor, "Monitor"));
+		for (RelayNode node : this.Ring) {
+			node.setReadyLatch(this.readyLatch);
 			//Connect put the node in it's own thread
-			this.ringThreads.add(new Thread(this.Ring.get(i - 1)));
-			//Establish connection to 'previous node'
-			if (i == 1)
-				this.monitor.addOutputSocket(this.Ring.get(0).getPort(), this.Ring.get(0).getLocalAddress());
-			else
-				this.Ring.get(i - 2).addOutputSocket(this.Ring.get(i - 1).getPort(), this.Ring.get(i - 1).getLocalAddress());
+			if (dedicatedThreads)
+				this.ringThreads.add(threadMode.newThread(node, "Node " + node.getNodeID()));
 		}
-		//Complete loop
-		this.Ring.get(numberOfNodes - 1).addOutputSocket(this.monitor.getPort(), this.monitor.getLocalAddress());
 		//Inform the Monitor of who is in the Network
 		monitor.placeNetwork(Ring);
+		this.createTime = System.nanoTime() - createStart;
 		return 0;
 	}
+	
+	/**
+	 * Creates the transport of one node, linked by the simulator when the ring is simulated.
+	 */
+	private Transport newTransport(int nodeID) {
+		if (this.simulator != null) {
+			return this.simulator.newTransport();
+		}
+		return this.configuration.newTransport(nodeID);
+	}
 }
@@ -0,0 +1,263 @@
+package com.wfong.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class gives the link to the downstream Node the bit rate, propagation delay, jitter and
+ * queue depth of a real cable. It wraps the transport that actually carries the bytes.<br>
+ * Written bytes are paced by a token bucket filled at the link's bit rate. A link thread hands
+ * them to the wrapped transport once they have been sent and have propagated to the next Node.
+ * Jitter never reorders bytes. A writer blocks while the link queues more than its queue depth.<br>
+ * Parking a thread overshoots by the operating system's timer slack, about 60 microseconds on
+ * Linux, which would swamp the delay of a short cable. The link thread therefore parks only until
+ * {@link #SPIN_THRESHOLD} before the bytes are due and spins for the rest. The resolution floor is
+ * then the 4-5 microseconds it takes to hand the bytes to the next Node, whatever the delay. A
+ * link that may not spin, or whose processor is busy with other threads, overshoots by the timer
+ * slack instead.<br>
+ * Each link has a thread of its own, so a link is never held up by a downstream Node that is not
+ * reading. The thread is made by the ring, a ring of virtual threads gets virtual link threads.
+ * @author William Fong
+ *
+ */
+public class EmulatedLinkTransport implements Transport, Runnable {
+	//Time before an arrival at which the link thread stops parking and spins
+	public static final long SPIN_THRESHOLD = TimeUnit.MICROSECONDS.toNanos(100);
+
+	/**
+	 * Bytes travelling on the link.
+	 */
+	private static class Chunk {
+		//The bytes, null for the end of the stream
+		private final byte[] bytes;
+		//System.nanoTime() at which the bytes reach the downstream Node
+		private final long arrival;
+
+		private Chunk(byte[] bytes, long arrival) {
+			this.bytes = bytes;
+			this.arrival = arrival;
+		}
+	}
+
+	private final Transport transport;
+	private final LinkProfile profile;
+	private final SplittableRandom random;
+	private final String name;
+	private final ThreadFactory threadFactory;
+	//False to always park, for link threads which must not hold on to a processor
+	private final boolean spin;
+	private final ArrayDeque<Chunk> queue;
+	private int queuedBytes;
+	private boolean outputClosed;
+	//Token bucket, in bytes: may go negative while bytes wait to be sent
+	private double tokens;
+	private long lastRefill;
+	//Bytes per nanosecond, 0 for an unlimited link
+	private final double byteRate;
+	private long lastArrival;
+
+	/**
+	 * Wraps a transport in an emulated link run by a platform thread of its own, which spins
+	 * for the last stretch of every delay.
+	 * @param transport The transport carrying the bytes.
+	 * @param profile The link's bit rate, delays and queue depth.
+	 * @param seed The seed of the jitter.
+	 * @param name The name of the link's thread.
+	 */
+	public EmulatedLinkTransport(Transport transport, LinkProfile profile, long seed, final String name) {
+		this(transport, profile, seed, name, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, true);
+	}
+
+	/**
+	 * Wraps a transport in an emulated link.
+	 * @param transport The transport carrying the bytes.
+	 * @param profile The link's bit rate, delays and queue depth.
+	 * @param seed The seed of the jitter.
+	 * @param name The name of the link, used in error messages.
+	 * @param threadFactory Makes the link's thread, which must not keep the JVM alive.
+	 * @param spin True to spin for the last {@link #SPIN_THRESHOLD} of every delay, false to only park.
+	 */
+	public EmulatedLinkTransport(Transport transport, LinkProfile profile, long seed, String name, ThreadFactory threadFactory, boolean spin) {
+		this.transport = transport;
+		this.profile = profile;
+		this.random = new SplittableRandom(seed);
+		this.name = name;
+		this.threadFactory = threadFactory;
+		this.spin = spin;
+		this.queue = new ArrayDeque<Chunk>();
+		this.queuedBytes = 0;
+		this.outputClosed = false;
+		this.tokens = profile.getBurstSize();
+		this.lastRefill = System.nanoTime();
+		this.byteRate = profile.getBitRate() / 8.0 / TimeUnit.SECONDS.toNanos(1);
+		this.lastArrival = 0;
+	}
+
+	/**
+	 * Returns the transport carrying the bytes.
+	 * @return The wrapped transport.
+	 */
+	public Transport getTransport() {
+		return this.transport;
+	}
+
+	@Override
+	public int openInput() throws IOException {
+		return this.transport.openInput();
+	}
+
+	@Override
+	public void connect(Transport downstream) throws IOException {
+		if (downstream instanceof EmulatedLinkTransport) {
+			downstream = ((EmulatedLinkTransport) downstream).transport;
+		}
+		this.transport.connect(downstream);
+		this.threadFactory.newThread(this).start();
+	}
+
+	@Override
+	public void acceptInput() throws IOException {
+		this.transport.acceptInput();
+	}
+
+	@Override
+	public void setTimeOut(int timeOutPeriod) throws IOException {
+		this.transport.setTimeOut(timeOutPeriod);
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		return this.transport.read(buffer, offset, length);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		byte[] bytes = Arrays.copyOfRange(buffer, offset, offset + length);
+		synchronized (this.queue) {
+			if (this.outputClosed) {
+				throw new IOException("Emulated link is closed");
+			}
+			//Queue at least one chunk, however large
+			while (this.queuedBytes > 0 && this.queuedBytes + length > this.profile.getQueueDepth()) {
+				try {
+					this.queue.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for the link queue");
+				}
+			}
+			enqueue(bytes, length);
+		}
+	}
+
+	@Override
+	public void closeOutput() {
+		synchronized (this.queue) {
+			if (this.outputClosed) {
+				return;
+			}
+			this.outputClosed = true;
+			//End of stream arrives behind the last byte
+			enqueue(null, 0);
+		}
+	}
+
+	@Override
+	public void closeInput() throws IOException {
+		this.transport.closeInput();
+	}
+
+	/**
+	 * Schedules the arrival of bytes and wakes the link thread. The caller holds the queue's lock.
+	 */
+	private void enqueue(byte[] bytes, int length) {
+		long now = System.nanoTime();
+		long sent = now;
+		if (this.byteRate > 0) {
+			this.tokens = Math.min(this.profile.getBurstSize(), this.tokens + (now - this.lastRefill) * this.byteRate);
+			this.lastRefill = now;
+			this.tokens -= length;
+			if (this.tokens < 0) {
+				//The last byte leaves once the bucket has refilled
+				sent += (long) (-this.tokens / this.byteRate);
+			}
+		}
+		long jitter = this.profile.getJitter() > 0 ? this.random.nextLong(this.profile.getJitter() + 1) : 0;
+		long arrival = Math.max(sent + this.profile.getPropagationDelay() + jitter, this.lastArrival);
+		this.lastArrival = arrival;
+		this.queue.addLast(new Chunk(bytes, arrival));
+		this.queuedBytes += length;
+		this.queue.notifyAll();
+	}
+
+	/**
+	 * Hands every chunk to the wrapped transport once it has arrived, until the output is closed.
+	 */
+	@Override
+	public void run() {
+		Chunk chunk;
+		while (true) {
+			synchronized (this.queue) {
+				while (this.queue.isEmpty()) {
+					try {
+						this.queue.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				chunk = this.queue.peekFirst();
+			}
+			awaitArrival(chunk.arrival);
+			try {
+				if (chunk.bytes == null) {
+					this.transport.closeOutput();
+					return;
+				}
+				this.transport.write(chunk.bytes, 0, chunk.bytes.length);
+			} catch (IOException e) {
+				System.err.println(this.name + " could not deliver: " + e.getMessage());
+			} finally {
+				synchronized (this.queue) {
+					this.queue.pollFirst();
+					this.queuedBytes -= chunk.bytes == null ? 0 : chunk.bytes.length;
+					this.queue.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until System.nanoTime() reaches an arrival time: parks while the arrival is further
+	 * away than the timer slack could overshoot, then spins.
+	 */
+	private void awaitArrival(long arrival) {
+		long delay;
+		while ((delay = arrival - System.nanoTime()) > 0) {
+			if (!this.spin) {
+				LockSupport.parkNanos(this, delay);
+			} else if (delay > SPIN_THRESHOLD) {
+				LockSupport.parkNanos(this, delay - SPIN_THRESHOLD);
+			} else {
+				Thread.onSpinWait();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "EmulatedLinkTransport [" + this.profile + "] over " + this.transport;
+	}
+}
@@ -0,0 +1,91 @@
+package com.wfong.transport;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class links Nodes running in the same JVM through single-producer/single-consumer ring
+ * buffers. Each hop costs one copy into and one copy out of the ring, no system calls.<br>
+ * The body of a Frame passing through is copied straight from one ring into the next.
+ * @author William Fong
+ *
+ */
+public class InProcessTransport implements Transport {
+	//Default ring capacity in bytes
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+	private final SpscByteRing input;
+	private SpscByteRing output;
+	private long timeOutNanos;
+
+	/**
+	 * Creates an in-process transport with the default capacity that parks waiting threads.
+	 */
+	public InProcessTransport() {
+		this(DEFAULT_CAPACITY, WaitStrategy.PARK);
+	}
+
+	/**
+	 * Creates an in-process transport.
+	 * @param capacity The capacity of the input ring in bytes.
+	 * @param waitStrategy How readers and writers wait on the rings.
+	 */
+	public InProcessTransport(int capacity, WaitStrategy waitStrategy) {
+		this.input = new SpscByteRing(capacity, waitStrategy);
+	}
+
+	@Override
+	public int openInput() {
+		return 0;
+	}
+
+	@Override
+	public void connect(Transport downstream) throws IOException {
+		if (!(downstream instanceof InProcessTransport)) {
+			throw new IOException("Cannot connect an in-process transport to " + downstream);
+		}
+		this.output = ((InProcessTransport) downstream).input;
+	}
+
+	@Override
+	public void acceptInput() {
+		//The input ring exists from construction, there is nothing to accept
+	}
+
+	@Override
+	public void setTimeOut(int timeOutPeriod) {
+		this.timeOutNanos = TimeUnit.MILLISECONDS.toNanos(timeOutPeriod);
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		return this.input.read(buffer, offset, length, this.timeOutNanos);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		this.output.write(buffer, offset, length);
+	}
+
+	@Override
+	public int transfer(byte[] scratch, int length) throws IOException {
+		//Copy straight from the input ring into the downstream ring
+		return this.input.transferTo(this.output, length, this.timeOutNanos);
+	}
+
+	@Override
+	public void closeOutput() {
+		if (this.output != null) {
+			this.output.close();
+		}
+	}
+
+	@Override
+	public void closeInput() {
+		this.input.stopReading();
+	}
+
+	@Override
+	public String toString() {
+		return "InProcessTransport";
+	}
+}
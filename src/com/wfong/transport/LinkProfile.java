@@ -0,0 +1,78 @@
+package com.wfong.transport;
+
+/**
+ * This class describes the cable between a Node and its downstream neighbor, as emulated by an
+ * {@link EmulatedLinkTransport}.
+ * @author William Fong
+ *
+ */
+public class LinkProfile {
+	//Default number of bytes a link queues before its sender blocks
+	public static final int DEFAULT_QUEUE_DEPTH = 64 * 1024;
+	private final long bitRate;
+	private final long propagationDelay;
+	private final long jitter;
+	private final int queueDepth;
+	private final int burstSize;
+
+	/**
+	 * Creates a link profile.
+	 * @param bitRate The bit rate in bits per second, 0 for unlimited.
+	 * @param propagationDelay The time the bytes take to reach the next Node once sent, in nanoseconds.
+	 * @param jitter The largest random delay added to the propagation delay, in nanoseconds.
+	 * @param queueDepth The number of bytes queued on the link before the sender blocks.
+	 * @param burstSize The number of bytes the link may send at once after being idle, the token bucket's depth.
+	 */
+	public LinkProfile(long bitRate, long propagationDelay, long jitter, int queueDepth, int burstSize) {
+		if (bitRate < 0 || propagationDelay < 0 || jitter < 0 || queueDepth < 1 || burstSize < 0) {
+			throw new IllegalArgumentException("Invalid link " + bitRate + ":" + propagationDelay + ":" + jitter + ":" + queueDepth + ":" + burstSize);
+		}
+		this.bitRate = bitRate;
+		this.propagationDelay = propagationDelay;
+		this.jitter = jitter;
+		this.queueDepth = queueDepth;
+		this.burstSize = burstSize;
+	}
+
+	public long getBitRate() {
+		return this.bitRate;
+	}
+
+	public long getPropagationDelay() {
+		return this.propagationDelay;
+	}
+
+	public long getJitter() {
+		return this.jitter;
+	}
+
+	public int getQueueDepth() {
+		return this.queueDepth;
+	}
+
+	public int getBurstSize() {
+		return this.burstSize;
+	}
+
+	/**
+	 * Parses a link profile from the command line.
+	 * @param value "bitrate[:delay[:jitter[:queue[:burst]]]]", in bits per second, nanoseconds and bytes.
+	 * @return The link profile.
+	 */
+	public static LinkProfile parse(String value) {
+		String[] fields = value.split(":");
+		if (fields.length > 5) {
+			throw new IllegalArgumentException(value);
+		}
+		return new LinkProfile(Long.valueOf(fields[0]),
+				fields.length > 1 ? Long.valueOf(fields[1]) : 0,
+				fields.length > 2 ? Long.valueOf(fields[2]) : 0,
+				fields.length > 3 ? Integer.valueOf(fields[3]) : DEFAULT_QUEUE_DEPTH,
+				fields.length > 4 ? Integer.valueOf(fields[4]) : 0);
+	}
+
+	@Override
+	public String toString() {
+		return this.bitRate + ":" + this.propagationDelay + ":" + this.jitter + ":" + this.queueDepth + ":" + this.burstSize;
+	}
+}
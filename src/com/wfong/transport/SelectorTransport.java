@@ -0,0 +1,174 @@
+package com.wfong.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * This class links Nodes through non-blocking loopback TCP channels so that many Nodes can be
+ * multiplexed on a single {@link Selector}.<br>
+ * Reads never block, they return 0 when no bytes are available. Bytes the socket does not accept
+ * right away are queued and flushed once the channel becomes writable.
+ * @author William Fong
+ *
+ */
+public class SelectorTransport implements Transport {
+	private InetAddress address;
+	private ServerSocketChannel serverChannel;
+	private SocketChannel inputChannel;
+	private SocketChannel outputChannel;
+	private SelectionKey outputKey;
+	private ByteBuffer readView;
+	private ArrayDeque<ByteBuffer> pendingWrites;
+	private boolean closeRequested;
+	private int port;
+
+	/**
+	 * Creates a non-blocking transport on the loopback address.
+	 */
+	public SelectorTransport() {
+		this.address = TcpTransport.getLocalAddress();
+		this.pendingWrites = new ArrayDeque<ByteBuffer>();
+	}
+
+	@Override
+	public int openInput() throws IOException {
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(new InetSocketAddress(this.address, 0), 50);
+		this.port = this.serverChannel.socket().getLocalPort();
+		return this.port;
+	}
+
+	@Override
+	public void connect(Transport downstream) throws IOException {
+		if (!(downstream instanceof SelectorTransport)) {
+			throw new IOException("Cannot connect a selector transport to " + downstream);
+		}
+		SelectorTransport server = (SelectorTransport) downstream;
+		this.outputChannel = SocketChannel.open(new InetSocketAddress(server.address, server.port));
+		//Frames are written whole, do not wait to coalesce them
+		this.outputChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+	}
+
+	@Override
+	public void acceptInput() throws IOException {
+		this.inputChannel = this.serverChannel.accept();
+	}
+
+	@Override
+	public void setTimeOut(int timeOutPeriod) {
+		//Time outs are handled by the event loop
+	}
+
+	/**
+	 * Switches both channels to non-blocking mode and registers them with a selector.
+	 * @param selector The selector of the event loop driving the Node.
+	 * @param attachment The object to attach to both selection keys.
+	 * @return The selection key of the input channel.
+	 * @throws IOException If the channels could not be registered.
+	 */
+	public SelectionKey register(Selector selector, Object attachment) throws IOException {
+		this.inputChannel.configureBlocking(false);
+		this.outputChannel.configureBlocking(false);
+		this.outputKey = this.outputChannel.register(selector, 0, attachment);
+		return this.inputChannel.register(selector, SelectionKey.OP_READ, attachment);
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (this.readView == null || this.readView.array() != buffer) {
+			this.readView = ByteBuffer.wrap(buffer);
+		}
+		this.readView.limit(offset + length).position(offset);
+		return this.inputChannel.read(this.readView);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		if (this.closeRequested) {
+			return;
+		}
+		ByteBuffer source = ByteBuffer.wrap(buffer, offset, length);
+		if (this.pendingWrites.isEmpty()) {
+			this.outputChannel.write(source);
+			if (!source.hasRemaining()) {
+				return;
+			}
+		}
+		//The socket is full, keep a copy until the channel is writable again
+		ByteBuffer pending = ByteBuffer.allocate(source.remaining());
+		pending.put(source).flip();
+		this.pendingWrites.add(pending);
+		if (this.outputKey != null) {
+			this.outputKey.interestOps(SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Writes as many queued bytes as the channel accepts. Called when the channel is writable.
+	 * @return True if every queued byte has been written.
+	 * @throws IOException If the channel failed.
+	 */
+	public boolean flushPending() throws IOException {
+		while (!this.pendingWrites.isEmpty()) {
+			ByteBuffer pending = this.pendingWrites.peek();
+			this.outputChannel.write(pending);
+			if (pending.hasRemaining()) {
+				return false;
+			}
+			this.pendingWrites.poll();
+		}
+		this.outputKey.interestOps(0);
+		if (this.closeRequested) {
+			this.outputChannel.shutdownOutput();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if bytes are still waiting to be written.
+	 * @return True if the write queue is not empty.
+	 */
+	public boolean hasPendingWrites() {
+		return !this.pendingWrites.isEmpty();
+	}
+
+	@Override
+	public void closeOutput() throws IOException {
+		if (this.closeRequested || this.outputChannel == null) {
+			return;
+		}
+		this.closeRequested = true;
+		//Queued bytes are still delivered, the channel is shut down once they have been flushed
+		if (this.pendingWrites.isEmpty()) {
+			this.outputChannel.shutdownOutput();
+		}
+	}
+
+	@Override
+	public void closeInput() throws IOException {
+		if (this.serverChannel != null) {
+			this.serverChannel.close();
+		}
+	}
+
+	/**
+	 * Returns the port the input channel is bound to.
+	 * @return The port number.
+	 */
+	public int getPort() {
+		return this.port;
+	}
+
+	@Override
+	public String toString() {
+		return "SelectorTransport [port=" + this.port + "]";
+	}
+}
@@ -0,0 +1,199 @@
+package com.wfong.transport;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is a lock-free single-producer/single-consumer ring buffer of bytes. Exactly one
+ * thread may write to it and exactly one thread may read from it.<br>
+ * Positions only ever grow, the index into the buffer is the position masked by the capacity.
+ * @author William Fong
+ *
+ */
+public class SpscByteRing {
+	private final byte[] buffer;
+	private final int mask;
+	private final WaitStrategy waitStrategy;
+	//Position of the next byte to be read, only written by the consumer
+	private volatile long head;
+	//Position of the next byte to be written, only written by the producer
+	private volatile long tail;
+	private volatile boolean closed;
+	//Set once the reader will no longer read, further bytes are discarded
+	private volatile boolean discarding;
+	//Threads currently parked on the ring (PARK strategy only)
+	private volatile Thread parkedReader;
+	private volatile Thread parkedWriter;
+
+	/**
+	 * Creates a ring buffer.
+	 * @param capacity The capacity in bytes, rounded up to a power of two.
+	 * @param waitStrategy How the reader and writer wait on each other.
+	 */
+	public SpscByteRing(int capacity, WaitStrategy waitStrategy) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.buffer = new byte[size];
+		this.mask = size - 1;
+		this.waitStrategy = waitStrategy;
+	}
+
+	/**
+	 * Reads up to length bytes, waiting until at least one byte is available.
+	 * @param destination The buffer to copy the bytes into.
+	 * @param offset The index of the first byte to fill.
+	 * @param length The maximum number of bytes to read.
+	 * @param timeOutNanos How long to wait for data, 0 waits forever.
+	 * @return The number of bytes read, or -1 if the ring is closed and empty.
+	 * @throws SocketTimeoutException If no data arrived in time.
+	 */
+	public int read(byte[] destination, int offset, int length, long timeOutNanos) throws SocketTimeoutException {
+		long position = this.head;
+		long available = this.tail - position;
+		if (available == 0) {
+			available = awaitData(position, timeOutNanos);
+			if (available < 0) {
+				return -1;
+			}
+		}
+		int count = (int) Math.min(length, available);
+		int index = (int) (position & this.mask);
+		int first = Math.min(count, this.buffer.length - index);
+		System.arraycopy(this.buffer, index, destination, offset, first);
+		System.arraycopy(this.buffer, 0, destination, offset + first, count - first);
+		this.head = position + count;
+		wake(this.parkedWriter);
+		return count;
+	}
+
+	/**
+	 * Moves up to length bytes into another ring without staging them, waiting until at least
+	 * one byte is available. This ring's consumer must be the other ring's producer.
+	 * @param target The ring to write the bytes to.
+	 * @param length The maximum number of bytes to move.
+	 * @param timeOutNanos How long to wait for data, 0 waits forever.
+	 * @return The number of bytes moved, or -1 if the ring is closed and empty.
+	 * @throws SocketTimeoutException If no data arrived in time.
+	 * @throws IOException If the target ring has been closed.
+	 */
+	public int transferTo(SpscByteRing target, int length, long timeOutNanos) throws IOException {
+		long position = this.head;
+		long available = this.tail - position;
+		if (available == 0) {
+			available = awaitData(position, timeOutNanos);
+			if (available < 0) {
+				return -1;
+			}
+		}
+		int count = (int) Math.min(length, available);
+		int index = (int) (position & this.mask);
+		int first = Math.min(count, this.buffer.length - index);
+		target.write(this.buffer, index, first);
+		target.write(this.buffer, 0, count - first);
+		this.head = position + count;
+		wake(this.parkedWriter);
+		return count;
+	}
+
+	/**
+	 * Writes every byte, waiting for the reader to free space whenever the ring is full.<br>
+	 * Bytes written after the reader has stopped are silently discarded, as with an unread socket.
+	 * @param source The buffer holding the bytes.
+	 * @param offset The index of the first byte to write.
+	 * @param length The number of bytes to write.
+	 * @throws IOException If the ring has been closed.
+	 */
+	public void write(byte[] source, int offset, int length) throws IOException {
+		long position = this.tail;
+		while (length > 0) {
+			if (this.discarding) {
+				return;
+			}
+			if (this.closed) {
+				throw new IOException("Ring buffer is closed");
+			}
+			long free = this.buffer.length - (position - this.head);
+			if (free == 0) {
+				awaitSpace(position);
+				continue;
+			}
+			int count = (int) Math.min(length, free);
+			int index = (int) (position & this.mask);
+			int first = Math.min(count, this.buffer.length - index);
+			System.arraycopy(source, offset, this.buffer, index, first);
+			System.arraycopy(source, offset + first, this.buffer, 0, count - first);
+			position += count;
+			offset += count;
+			length -= count;
+			this.tail = position;
+			wake(this.parkedReader);
+		}
+	}
+
+	/**
+	 * Closes the ring, the reader will see end of stream once it has read the remaining bytes.
+	 */
+	public void close() {
+		this.closed = true;
+		wake(this.parkedReader);
+		wake(this.parkedWriter);
+	}
+
+	/**
+	 * Stops reading from the ring, the writer will no longer wait for space.
+	 */
+	public void stopReading() {
+		this.discarding = true;
+		wake(this.parkedWriter);
+	}
+
+	/**
+	 * Waits until bytes are published past the given position.
+	 * @return The number of available bytes, or -1 if the ring was closed.
+	 */
+	private long awaitData(long position, long timeOutNanos) throws SocketTimeoutException {
+		long deadline = System.nanoTime() + timeOutNanos;
+		long nanosLeft = timeOutNanos == 0 ? Long.MAX_VALUE : timeOutNanos;
+		while (true) {
+			long available = this.tail - position;
+			if (available > 0) {
+				return available;
+			}
+			if (this.closed) {
+				available = this.tail - position;
+				return available > 0 ? available : -1;
+			}
+			if (timeOutNanos != 0) {
+				nanosLeft = deadline - System.nanoTime();
+				if (nanosLeft <= 0) {
+					throw new SocketTimeoutException("Read timed out");
+				}
+			}
+			this.parkedReader = Thread.currentThread();
+			if (this.tail == position && !this.closed) {
+				this.waitStrategy.idle(this, nanosLeft);
+			}
+			this.parkedReader = null;
+		}
+	}
+
+	/**
+	 * Waits until the reader has freed space behind the given position.
+	 */
+	private void awaitSpace(long position) {
+		this.parkedWriter = Thread.currentThread();
+		if (position - this.head == this.buffer.length && !this.closed && !this.discarding) {
+			this.waitStrategy.idle(this, Long.MAX_VALUE);
+		}
+		this.parkedWriter = null;
+	}
+
+	/**
+	 * Unparks a thread waiting on the ring.
+	 */
+	private void wake(Thread parked) {
+		if (parked != null && this.waitStrategy == WaitStrategy.PARK) {
+			LockSupport.unpark(parked);
+		}
+	}
+}
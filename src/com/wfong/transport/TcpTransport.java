@@ -0,0 +1,192 @@
+package com.wfong.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+/**
+ * This class links Nodes through loopback TCP sockets.
+ * @author William Fong
+ *
+ */
+public class TcpTransport implements Transport {
+	private InetAddress address;
+	private ServerSocket inputSocket;
+	private Socket clientSocket;
+	private Socket outputSocket;
+	private InputStream inputStream;
+	private OutputStream outputStream;
+	private int timeOutPeriod;
+	private int port;
+
+	/**
+	 * Creates a TCP transport on the loopback address.
+	 */
+	public TcpTransport() {
+		this.address = getLocalAddress();
+	}
+
+	/**
+	 * This method handles getting the LocalHost address
+	 * @return The LocalHost IP
+	 */
+	public static InetAddress getLocalAddress() {
+		try {
+			return InetAddress.getByName("::1");
+		} catch (UnknownHostException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Attempts to bind the input Server Socket to a specified port.
+	 * @param port The port to attempt to bind the Socket to
+	 * @param address The address associated with the Socket
+	 * @throws IOException If the port is taken.
+	 */
+	public void bind(int port, InetAddress address) throws IOException {
+		this.inputSocket = new ServerSocket(port, 50, address);
+		this.address = address;
+		this.port = port;
+	}
+
+	/**
+	 * Binds the input Server Socket to an ephemeral port chosen by the operating system.
+	 * @param address The address associated with the Socket
+	 * @return The port number the Socket is listening to, or 0 if no port was free.
+	 */
+	public int bind(InetAddress address) {
+		try {
+			this.inputSocket = new ServerSocket(0, 50, address);
+			this.address = address;
+			this.port = this.inputSocket.getLocalPort();
+			return this.port;
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Connects the output socket to the specified port.
+	 * @param port The port of the downstream Node.
+	 * @param address The address of the downstream Node.
+	 * @throws IOException If the connection was refused.
+	 */
+	public void connect(int port, InetAddress address) throws IOException {
+		Socket socket = new Socket(address, port);
+		//Frames are written whole, do not wait to coalesce them
+		socket.setTcpNoDelay(true);
+		this.outputSocket = socket;
+		this.outputStream = socket.getOutputStream();
+	}
+
+	@Override
+	public int openInput() throws IOException {
+		int boundPort = bind(this.address);
+		if (boundPort == 0) {
+			throw new IOException("Could not find a free port number!");
+		}
+		return boundPort;
+	}
+
+	@Override
+	public void connect(Transport downstream) throws IOException {
+		if (!(downstream instanceof TcpTransport)) {
+			throw new IOException("Cannot connect a TCP transport to " + downstream);
+		}
+		TcpTransport server = (TcpTransport) downstream;
+		connect(server.port, server.address);
+	}
+
+	@Override
+	public void acceptInput() throws IOException {
+		if (this.inputSocket == null || !this.inputSocket.isBound()) {
+			throw new IOException("Listening socket does not exist!");
+		}
+		while (true) {
+			try {
+				this.clientSocket = this.inputSocket.accept();
+				this.clientSocket.setSoTimeout(this.timeOutPeriod);
+				this.inputStream = this.clientSocket.getInputStream();
+				return;
+			} catch (SocketTimeoutException T) {
+				System.out.println("Server listen timeout...");
+			}
+		}
+	}
+
+	@Override
+	public void setTimeOut(int timeOutPeriod) throws IOException {
+		this.timeOutPeriod = timeOutPeriod;
+		if (this.clientSocket != null) {
+			this.clientSocket.setSoTimeout(timeOutPeriod);
+		}
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		return this.inputStream.read(buffer, offset, length);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		this.outputStream.write(buffer, offset, length);
+	}
+
+	@Override
+	public void closeOutput() throws IOException {
+		if (this.outputSocket != null && !this.outputSocket.isClosed()) {
+			if (this.outputSocket.isConnected()) {
+				this.outputSocket.shutdownOutput();
+			}
+		}
+	}
+
+	@Override
+	public void closeInput() throws IOException {
+		if (this.inputSocket != null) {
+			this.inputSocket.close();
+		}
+	}
+
+	/**
+	 * Returns the accepted client socket.
+	 * @return A Socket object.
+	 */
+	public Socket getClientSocket() {
+		return this.clientSocket;
+	}
+
+	/**
+	 * Returns the output socket.
+	 * @return A Socket object.
+	 */
+	public Socket getOutputSocket() {
+		return this.outputSocket;
+	}
+
+	/**
+	 * Returns the port the input socket is bound to.
+	 * @return The port number.
+	 */
+	public int getPort() {
+		return this.port;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("TcpTransport [inputSocket=");
+		builder.append(this.inputSocket);
+		builder.append(", outputSocket=");
+		builder.append(this.outputSocket);
+		builder.append("]");
+		return builder.toString();
+	}
+}
@@ -0,0 +1,92 @@
+package com.wfong.transport;
+
+import java.io.IOException;
+
+/**
+ * This interface describes the link a Node uses to receive bytes from its upstream neighbor
+ * and to send bytes to its downstream neighbor. Frames are exchanged as a byte stream so every
+ * backend carries the same (possibly garbled) bytes.
+ * @author William Fong
+ *
+ */
+public interface Transport {
+
+	/**
+	 * Prepares the input side of the link so that an upstream Node can connect to it.
+	 * @return The port the input is bound to, or 0 if the backend does not use ports.
+	 * @throws IOException If the input could not be opened.
+	 */
+	public int openInput() throws IOException;
+
+	/**
+	 * Connects the output side of the link to the input of the downstream Node.
+	 * @param downstream The transport of the downstream Node, must be of the same type.
+	 * @throws IOException If the connection could not be established.
+	 */
+	public void connect(Transport downstream) throws IOException;
+
+	/**
+	 * Waits until the upstream Node has connected to the input side of the link.
+	 * @throws IOException If the connection could not be accepted.
+	 */
+	public void acceptInput() throws IOException;
+
+	/**
+	 * Sets how long a read may block before timing out.
+	 * @param timeOutPeriod The time out period in milliseconds, 0 blocks forever.
+	 * @throws IOException If the time out could not be applied.
+	 */
+	public void setTimeOut(int timeOutPeriod) throws IOException;
+
+	/**
+	 * Reads up to length bytes from the upstream Node, blocking until at least one is available.
+	 * @param buffer The buffer to read into.
+	 * @param offset The index of the first byte to fill.
+	 * @param length The maximum number of bytes to read.
+	 * @return The number of bytes read, or -1 if the upstream Node closed the link.
+	 * @throws java.net.SocketTimeoutException If no byte arrived within the time out period.
+	 * @throws IOException If the link failed.
+	 */
+	public int read(byte[] buffer, int offset, int length) throws IOException;
+
+	/**
+	 * Writes bytes to the downstream Node.
+	 * @param buffer The buffer holding the bytes.
+	 * @param offset The index of the first byte to write.
+	 * @param length The number of bytes to write.
+	 * @throws IOException If the link failed.
+	 */
+	public void write(byte[] buffer, int offset, int length) throws IOException;
+
+	/**
+	 * Copies up to length bytes arriving from the upstream Node straight to the downstream Node,
+	 * blocking until at least one byte is available. This is used to forward the body of a Frame
+	 * that only passes through.<br>
+	 * Backends able to move the bytes without staging them override this, by default they are
+	 * read into the scratch buffer and written out again.
+	 * @param scratch A buffer the bytes may be staged in.
+	 * @param length The maximum number of bytes to copy.
+	 * @return The number of bytes copied, or -1 if the upstream Node closed the link.
+	 * @throws java.net.SocketTimeoutException If no byte arrived within the time out period.
+	 * @throws IOException If the link failed.
+	 */
+	public default int transfer(byte[] scratch, int length) throws IOException {
+		int bytesRead = read(scratch, 0, Math.min(length, scratch.length));
+		if (bytesRead > 0) {
+			write(scratch, 0, bytesRead);
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Closes the output side of the link, the downstream Node will read end of stream.
+	 * @throws IOException If the output could not be closed.
+	 */
+	public void closeOutput() throws IOException;
+
+	/**
+	 * Closes the input side of the link.
+	 * @throws IOException If the input could not be closed.
+	 */
+	public void closeInput() throws IOException;
+}
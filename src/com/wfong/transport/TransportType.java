@@ -0,0 +1,29 @@
+package com.wfong.transport;
+
+/**
+ * This enum lists the available Transport backends.
+ * @author William Fong
+ *
+ */
+public enum TransportType {
+	/**
+	 * Loopback TCP sockets.
+	 */
+	TCP,
+	/**
+	 * Lock-free ring buffers inside the JVM.
+	 */
+	IN_PROCESS;
+
+	/**
+	 * Parses a transport type from the command line.
+	 * @param name "tcp" or "inproc" (case insensitive).
+	 * @return The transport type.
+	 */
+	public static TransportType parse(String name) {
+		if (name.equalsIgnoreCase("inproc") || name.equalsIgnoreCase("in_process")) {
+			return IN_PROCESS;
+		}
+		return valueOf(name.toUpperCase());
+	}
+}
@@ -0,0 +1,51 @@
+package com.wfong.transport;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This enum lists the ways a thread may wait on an in-process ring buffer.
+ * @author William Fong
+ *
+ */
+public enum WaitStrategy {
+	/**
+	 * Busy spins, lowest latency but burns a core per waiting Node.
+	 */
+	SPIN,
+	/**
+	 * Yields the processor between checks.
+	 */
+	YIELD,
+	/**
+	 * Parks the thread until the other side signals it, or the time out expires.
+	 */
+	PARK;
+
+	/**
+	 * Waits once before the caller checks its condition again.
+	 * @param blocker The object being waited on.
+	 * @param nanosLeft The time left before the caller times out.
+	 */
+	void idle(Object blocker, long nanosLeft) {
+		switch (this) {
+		case SPIN:
+			Thread.onSpinWait();
+			break;
+		case YIELD:
+			Thread.yield();
+			break;
+		case PARK:
+			LockSupport.parkNanos(blocker, nanosLeft);
+			break;
+		}
+	}
+
+	/**
+	 * Parses a wait strategy from the command line.
+	 * @param name The name of the strategy (case insensitive).
+	 * @return The wait strategy.
+	 */
+	public static WaitStrategy parse(String name) {
+		return valueOf(name.toUpperCase());
+	}
+}
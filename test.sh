@@ -2,13 +2,7 @@
 
 #rm input-file-* output-file-* sorted-output-*
 ant
-for nodes in {1..5}
-do
-	echo "Trial " $((nodes))
-	for i in {1..20}
-	do
-		python Project_2_GenerateInput.py 10
-		java -jar wfong_p2.jar 10 $((10 * i))
-		#python Grade.py
-	done
-done
+#5 trials of a 10 node ring for every THT from 10 to 200, simulated so they can run concurrently in one JVM
+java -cp wfong_p2.jar com.wfong.tokenRing.Sweep -nodes=10 -thts=10-200/10 -trials=5 -threads=simulated -out=sweep.csv
+#The same sweep over live TCP rings, one at a time so their timings can be compared
+#java -cp wfong_p2.jar com.wfong.tokenRing.Sweep -nodes=10 -thts=10-200/10 -trials=5 -parallel=1 -out=sweep-live.csv